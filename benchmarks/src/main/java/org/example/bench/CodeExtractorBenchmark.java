@@ -0,0 +1,35 @@
+package org.example.bench;
+
+import org.example.CodeExtractor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CodeExtractorBenchmark {
+
+    @Param({"1", "8"})
+    public int blocks;
+
+    private String reply;
+
+    @Setup
+    public void setup() {
+        reply = new Corpus(42).codeReply(blocks);
+    }
+
+    @Benchmark
+    public String[] split() {
+        return CodeExtractor.split(reply);
+    }
+
+    @Benchmark
+    public CodeExtractor.Result extract() {
+        return CodeExtractor.extract(reply);
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.bench;
+
+import org.example.ConversationRepo;
+import org.example.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConversationRepo 读写工作目录下的 conversation.jsonl；基准前备份真实文件，结束后还原
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversationRepoBenchmark {
+
+    private static final Path FILE = Paths.get("conversation.jsonl");
+    private static final Path BACKUP = Paths.get("conversation.jsonl.bench-bak");
+
+    /** load 时文件里已有的消息条数 */
+    @Param({"100", "2000"})
+    public int existing;
+
+    private Message next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (Files.exists(FILE)) Files.move(FILE, BACKUP, StandardCopyOption.REPLACE_EXISTING);
+        Corpus c = new Corpus(5);
+        for (Message m : c.conversation(existing / 2)) ConversationRepo.append(m);
+        next = new Message("user", c.paragraph(2));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ConversationRepo.clear();
+        if (Files.exists(BACKUP)) Files.move(BACKUP, FILE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        ConversationRepo.append(next);
+    }
+
+    @Benchmark
+    public List<Message> load() throws IOException {
+        return ConversationRepo.load();
+    }
+}
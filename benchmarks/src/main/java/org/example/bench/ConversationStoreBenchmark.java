@@ -0,0 +1,75 @@
+package org.example.bench;
+
+import org.example.ConversationStore;
+import org.example.model.ConversationMeta;
+import org.example.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * ConversationStore 的本地文件读写；使用一个不会与真实用户冲突的 userId，结束后删除其目录
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversationStoreBenchmark {
+
+    private static final int USER_ID = 990_001;
+
+    /** 每段对话的轮数 */
+    @Param({"10", "100"})
+    public int turns;
+
+    /** listMeta 时目录里的对话数 */
+    @Param({"200"})
+    public int conversations;
+
+    private ConversationMeta meta;
+    private List<Message> msgs;
+
+    @Setup
+    public void setup() throws IOException {
+        Corpus c = new Corpus(3);
+        for (int i = 0; i < conversations; i++) {
+            ConversationStore.save(c.meta("bench-" + i, USER_ID), c.conversation(2));
+        }
+        meta = c.meta("bench-target", USER_ID);
+        msgs = c.conversation(turns);
+        ConversationStore.save(meta, msgs);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Path dir = Paths.get("history/user_" + USER_ID);
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        ConversationStore.save(meta, msgs);
+    }
+
+    @Benchmark
+    public List<Message> loadMsg() throws IOException {
+        return ConversationStore.loadMsg(meta.getId(), USER_ID);
+    }
+
+    @Benchmark
+    public List<ConversationMeta> listMeta() throws IOException {
+        return ConversationStore.listMeta(USER_ID);
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.bench;
+
+import org.example.model.ConversationMeta;
+import org.example.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 基准用语料生成器：固定种子，生成接近真实使用的中英混排对话、Markdown 论文和代码回复
+ */
+public final class Corpus {
+
+    private static final String[] ZH = {
+            "人工智能", "深度学习", "数据库", "并发", "性能优化", "分布式系统", "缓存", "索引",
+            "用户体验", "模型推理", "上下文", "网络延迟", "吞吐量", "内存占用", "垃圾回收", "线程池"};
+    private static final String[] EN = {
+            "latency", "throughput", "request", "response", "buffer", "thread", "cache", "index",
+            "stream", "token", "context", "model", "query", "schema", "channel", "pipeline"};
+
+    private final Random rnd;
+
+    public Corpus(long seed) {
+        this.rnd = new Random(seed);
+    }
+
+    /* 一句中英混排的话 */
+    public String sentence() {
+        StringBuilder sb = new StringBuilder();
+        int n = 6 + rnd.nextInt(10);
+        for (int i = 0; i < n; i++) {
+            if (rnd.nextInt(3) == 0) sb.append(' ').append(EN[rnd.nextInt(EN.length)]).append(' ');
+            else sb.append(ZH[rnd.nextInt(ZH.length)]);
+            if (rnd.nextInt(6) == 0) sb.append("，");
+        }
+        return sb.append("。").toString();
+    }
+
+    public String paragraph(int sentences) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sentences; i++) sb.append(sentence());
+        return sb.toString();
+    }
+
+    /* 一段 Java 代码 */
+    public String code(int lines) {
+        StringBuilder sb = new StringBuilder("public class Demo").append(rnd.nextInt(1000)).append(" {\n");
+        for (int i = 0; i < lines; i++) {
+            sb.append("    int ").append(EN[rnd.nextInt(EN.length)]).append(i)
+                    .append(" = ").append(rnd.nextInt(10_000)).append("; // ").append(ZH[rnd.nextInt(ZH.length)]).append('\n');
+        }
+        return sb.append("}").toString();
+    }
+
+    /* 模型的典型代码回复：说明文字 + 若干代码块 */
+    public String codeReply(int blocks) {
+        StringBuilder sb = new StringBuilder(paragraph(2)).append("\n\n");
+        for (int i = 0; i < blocks; i++) {
+            sb.append("**src/Demo").append(i).append(".java**\n```java\n").append(code(30)).append("\n```\n\n")
+                    .append(paragraph(1)).append("\n\n");
+        }
+        return sb.toString();
+    }
+
+    /* 论文式 Markdown：多级标题、列表、粗斜体、引用、代码、分隔线 */
+    public String markdown(int sections) {
+        StringBuilder sb = new StringBuilder();
+        for (int s = 1; s <= sections; s++) {
+            sb.append("## ").append(s).append(". ").append(ZH[rnd.nextInt(ZH.length)]).append("研究\n\n");
+            sb.append(paragraph(4)).append(" **").append(ZH[rnd.nextInt(ZH.length)]).append("** 与 *")
+                    .append(EN[rnd.nextInt(EN.length)]).append("* 以及 `").append(EN[rnd.nextInt(EN.length)]).append("`。\n\n");
+            sb.append("### ").append(s).append(".1 要点\n");
+            for (int i = 0; i < 4; i++) sb.append("- ").append(sentence()).append('\n');
+            sb.append('\n');
+            for (int i = 1; i <= 3; i++) sb.append(i).append(". ").append(sentence()).append('\n');
+            sb.append("\n> ").append(sentence()).append("\n\n");
+            if (s % 3 == 0) sb.append("```java\n").append(code(10)).append("\n```\n\n");
+            if (s % 5 == 0) sb.append("---\n\n");
+        }
+        return sb.toString();
+    }
+
+    /* 一段多轮对话，助手回复里夹带 Markdown 和代码 */
+    public List<Message> conversation(int turns) {
+        List<Message> list = new ArrayList<>(turns * 2);
+        for (int i = 0; i < turns; i++) {
+            list.add(new Message("user", paragraph(1 + rnd.nextInt(3))));
+            String reply = rnd.nextInt(4) == 0 ? codeReply(1) : paragraph(3 + rnd.nextInt(6));
+            list.add(new Message("assistant", reply));
+        }
+        return list;
+    }
+
+    public ConversationMeta meta(String id, int userId) {
+        long now = System.currentTimeMillis() - rnd.nextInt(1_000_000);
+        return ConversationMeta.builder()
+                .id(id)
+                .title(sentence().substring(0, 10))
+                .createTime(now)
+                .lastMsgTime(now + rnd.nextInt(100_000))
+                .userId(userId)
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.bench;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.example.MarkdownParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MarkdownBenchmark {
+
+    /** 章节数：20 约对应 800 字短文，200 约对应 5000 字长文 */
+    @Param({"20", "200"})
+    public int sections;
+
+    private String markdown;
+
+    @Setup
+    public void setup() {
+        markdown = new Corpus(7).markdown(sections);
+    }
+
+    @Benchmark
+    public int addMarkdownToDocument() throws IOException {
+        try (XWPFDocument doc = new XWPFDocument()) {
+            MarkdownParser.addMarkdownToDocument(doc, markdown);
+            return doc.getParagraphs().size();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.example.bench;
+
+import org.example.DeepSeekClient;
+import org.example.model.History;
+import org.example.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeepSeekClient 请求体序列化（每次带上下文对话都要把整段历史序列化一遍）
+ * messages 为普通 Message 列表时逐条写 String；为 History 时正文的 UTF-8 字节直接转义写出
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestSerializationBenchmark {
+
+    @Param({"10", "100"})
+    public int turns;
+
+    private final DeepSeekClient client = new DeepSeekClient();
+    private List<Message> history;
+    private History snapshot;
+
+    @Setup
+    public void setup() {
+        history = new Corpus(9).conversation(turns);
+        snapshot = History.of(history);
+    }
+
+    @Benchmark
+    public byte[] toRequestJson() throws IOException {
+        return client.toRequestJson(history, "deepseek-chat", 0.7);
+    }
+
+    @Benchmark
+    public byte[] toRequestJsonHistory() throws IOException {
+        return client.toRequestJson(snapshot, "deepseek-chat", 0.7);
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.bench;
+
+import org.example.WordExporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WordExporterBenchmark {
+
+    @Param({"20", "200"})
+    public int sections;
+
+    private String outline;
+    private String body;
+    private Path out;
+
+    @Setup
+    public void setup() throws IOException {
+        Corpus c = new Corpus(11);
+        outline = c.markdown(Math.max(2, sections / 10));
+        body = c.markdown(sections);
+        out = Files.createTempDirectory("bench-word").resolve("thesis.docx");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(out);
+        Files.deleteIfExists(out.getParent());
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        WordExporter.export("基准测试论文", outline, body, out.toString());
+        return Files.size(out);
+    }
+}
@@ -0,0 +1,154 @@
+package org.example;
+
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+import org.example.usage.Feature;
+import org.example.util.SimHash;
+
+import java.util.*;
+
+/**
+ * 近重复请求的答案缓存：同一功能、同样参数下，正文与之前某次请求相同或近似时直接返回当时的结果
+ *
+ * 先按规范化文本精确匹配（只差空白、标点、全角半角），再用 SimHash 的分段索引（LSH）找汉明距离
+ * 不超过该功能阈值的候选。阈值按功能配置 dedup.threshold.<功能>，负数表示该功能不缓存
+ * 默认只对 summary（3）开启；翻译改走按片段的 TranslationMemory，近似整篇复用会丢掉改动
+ */
+public final class AnswerCache {
+
+    /** 正文规范化后短于该长度只做精确匹配：短文本改一个词指纹就变化很大，且往往是有意的修改 */
+    private static final int MIN_FUZZY_LENGTH = 200;
+    /** 近似匹配时两段正文的长度差不超过较长者的比例 */
+    private static final double MAX_LENGTH_DIFF = 0.2;
+
+    private record Entry(Feature feature, String scope, String exactKey, long fingerprint, int length, String answer) {
+    }
+
+    private static final int MAX_ENTRIES = (int) ConfigManager.getLong(ConfigManager.KEY_DEDUP_MAX_ENTRIES, 1000);
+    private static final Map<Feature, Integer> THRESHOLDS = new EnumMap<>(Feature.class);
+    /** 分段数 = 最大阈值 + 1：距离不超过阈值的两个指纹至少有一段完全相同（抽屉原理） */
+    private static final int BANDS;
+
+    private static long seq;
+    private static final Map<Long, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<String, Long> EXACT = new HashMap<>();
+    private static final Map<Long, Set<Long>> BAND_INDEX = new HashMap<>();
+
+    static {
+        int max = 0;
+        for (Feature f : Feature.values()) {
+            long def = f == Feature.SUMMARY ? 3 : -1;
+            int t = (int) Math.min(15, ConfigManager.getLong(ConfigManager.KEY_DEDUP_THRESHOLD_PREFIX + f.getCode(), def));
+            THRESHOLDS.put(f, t);
+            max = Math.max(max, t);
+        }
+        BANDS = max + 1;
+    }
+
+    private AnswerCache() {
+    }
+
+    /**
+     * 查找可复用的结果，没有返回 null
+     * scope 是正文以外影响结果的全部参数（如目标语言），必须完全相同才会匹配
+     */
+    public static synchronized String get(Feature feature, String scope, String text) {
+        int threshold = THRESHOLDS.get(feature);
+        if (threshold < 0) return null;
+        String norm = SimHash.normalize(text);
+
+        Long id = EXACT.get(exactKey(feature, scope, norm));
+        if (id != null && ENTRIES.get(id) != null) {
+            Metrics.counter("answer_cache_total", "feature", feature.getCode(), "result", "exact").inc();
+            return ENTRIES.get(id).answer();
+        }
+
+        if (threshold > 0 && norm.length() >= MIN_FUZZY_LENGTH) {
+            long fp = SimHash.fingerprint(norm);
+            Entry best = null;
+            int bestDist = threshold + 1;
+            for (int b = 0; b < BANDS; b++) {
+                Set<Long> candidates = BAND_INDEX.get(bandKey(feature, scope, b, fp));
+                if (candidates == null) continue;
+                for (Long cid : candidates) {
+                    Entry e = ENTRIES.get(cid);
+                    if (e == null || e.feature() != feature || !e.scope().equals(scope) || !similarLength(e.length(), norm.length())) continue;
+                    int d = SimHash.hamming(e.fingerprint(), fp);
+                    if (d < bestDist) {
+                        best = e;
+                        bestDist = d;
+                    }
+                }
+            }
+            if (best != null) {
+                Metrics.counter("answer_cache_total", "feature", feature.getCode(), "result", "near").inc();
+                Metrics.histogram("answer_cache_hamming", "feature", feature.getCode()).record(bestDist);
+                return best.answer();
+            }
+        }
+        Metrics.counter("answer_cache_total", "feature", feature.getCode(), "result", "miss").inc();
+        return null;
+    }
+
+    /* 登记一次成功调用的结果；失败提示之类的结果不要放进来 */
+    public static synchronized void put(Feature feature, String scope, String text, String answer) {
+        int threshold = THRESHOLDS.get(feature);
+        if (threshold < 0 || answer == null || answer.isEmpty()) return;
+        String norm = SimHash.normalize(text);
+        String exact = exactKey(feature, scope, norm);
+        Long old = EXACT.get(exact);
+        if (old != null) remove(old);
+
+        long id = ++seq;
+        long fp = SimHash.fingerprint(norm);
+        ENTRIES.put(id, new Entry(feature, scope, exact, fp, norm.length(), answer));
+        EXACT.put(exact, id);
+        if (norm.length() >= MIN_FUZZY_LENGTH) {
+            for (int b = 0; b < BANDS; b++) {
+                BAND_INDEX.computeIfAbsent(bandKey(feature, scope, b, fp), k -> new HashSet<>()).add(id);
+            }
+        }
+        while (ENTRIES.size() > MAX_ENTRIES) {
+            remove(ENTRIES.keySet().iterator().next());
+            Metrics.counter("answer_cache_evictions_total").inc();
+        }
+    }
+
+    public static synchronized int size() {
+        return ENTRIES.size();
+    }
+
+    public static synchronized void clear() {
+        ENTRIES.clear();
+        EXACT.clear();
+        BAND_INDEX.clear();
+    }
+
+    private static void remove(long id) {
+        Entry e = ENTRIES.remove(id);
+        if (e == null) return;
+        EXACT.remove(e.exactKey());
+        for (int b = 0; b < BANDS; b++) {
+            long k = bandKey(e.feature(), e.scope(), b, e.fingerprint());
+            Set<Long> ids = BAND_INDEX.get(k);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) BAND_INDEX.remove(k);
+        }
+    }
+
+    private static String exactKey(Feature feature, String scope, String norm) {
+        return feature.getCode() + '\u0000' + scope + '\u0000' + norm;
+    }
+
+    /* 第 b 段的位，与功能、参数、段号一起散列成索引键 */
+    private static long bandKey(Feature feature, String scope, int b, long fp) {
+        int from = b * 64 / BANDS;
+        int to = (b + 1) * 64 / BANDS;
+        long bits = to - from == 64 ? fp : (fp >>> from) & ((1L << (to - from)) - 1);
+        long h = 31L * Objects.hash(feature, scope) + b;
+        return h * 0x9e3779b97f4a7c15L ^ bits;
+    }
+
+    private static boolean similarLength(int a, int b) {
+        return Math.abs(a - b) <= MAX_LENGTH_DIFF * Math.max(a, b);
+    }
+}
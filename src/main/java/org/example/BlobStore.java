@@ -0,0 +1,209 @@
+package org.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+import org.example.util.TtlCache;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * 按内容寻址的消息正文存储：超过阈值的正文按 SHA-256 存成 history/blobs/<前两位>/<哈希>，
+ * 对话文件里只记哈希，同一段内容无论粘贴进多少个对话只存一份
+ *
+ * 引用计数 = 引用该正文的对话数，存在 blobs/refs.json，多个进程共用：每次修改都先拿文件锁 refs.lock、
+ * 在锁内重新读取后再写回。计数只用来决定何时清理；真正删除前会扫描全部对话文件，
+ * 仍被任一对话文件（包括正在写入的临时文件）引用的正文一律保留，并据此修正计数
+ */
+public final class BlobStore {
+
+    /** 正文最近一次写入或复用后至少保留这么久，避免删掉计数还没来得及登记的正文 */
+    private static final long GRACE_MILLIS = 60_000L;
+
+    private static final Path DIR = Paths.get("history", "blobs");
+    private static final Path REFS_FILE = DIR.resolve("refs.json");
+    private static final Path LOCK_FILE = DIR.resolve("refs.lock");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int THRESHOLD = (int) ConfigManager.getLong(ConfigManager.KEY_BLOB_THRESHOLD, 4096);
+
+    // 正文内容不变，缓存只受容量限制；多个对话引用同一正文时共用一份字节
+    private static final TtlCache<String, byte[]> CACHE = new TtlCache<>("blob",
+            (int) ConfigManager.getLong(ConfigManager.KEY_CACHE_SIZE, 256), Long.MAX_VALUE / 2);
+
+    private static final AtomicBoolean GC_PENDING = new AtomicBoolean();
+    private static final ExecutorService GC = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "blob-gc");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private BlobStore() {
+    }
+
+    /* 正文达到该字节数才单独存放 */
+    public static boolean shouldStore(byte[] content) {
+        return THRESHOLD > 0 && content.length >= THRESHOLD;
+    }
+
+    /* 写入正文（已存在则跳过），返回哈希；引用计数由 acquire 登记 */
+    public static String put(byte[] content) throws IOException {
+        String hash = sha256(content);
+        Path f = file(hash);
+        if (Files.exists(f)) {
+            // 刷新修改时间，清理线程不会在登记引用前删掉它
+            Files.setLastModifiedTime(f, FileTime.fromMillis(System.currentTimeMillis()));
+            Metrics.counter("blob_put_total", "result", "dedup").inc();
+        } else {
+            Files.createDirectories(f.getParent());
+            Path tmp = f.resolveSibling(hash + "." + ProcessHandle.current().pid() + "." + Thread.currentThread().getId() + ".tmp");
+            Files.write(tmp, content);
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.counter("blob_put_total", "result", "new").inc();
+            Metrics.counter("blob_bytes_written_total").add(content.length);
+        }
+        CACHE.put(hash, content);
+        return hash;
+    }
+
+    /* 读取正文，返回的数组不得修改；不存在返回 null */
+    public static byte[] get(String hash) throws IOException {
+        byte[] b = CACHE.get(hash);
+        if (b != null) return b;
+        Path f = file(hash);
+        if (!Files.exists(f)) return null;
+        b = Files.readAllBytes(f);
+        Metrics.counter("blob_bytes_read_total").add(b.length);
+        CACHE.put(hash, b);
+        return b;
+    }
+
+    /* 登记新增的引用：保存对话时在对话文件替换之前调用，文件一旦可见其引用的正文就已计数 */
+    public static void acquire(Set<String> hashes) throws IOException {
+        if (hashes.isEmpty()) return;
+        updateRefs(r -> {
+            for (String h : hashes) r.merge(h, 1, Integer::sum);
+            return false;
+        });
+    }
+
+    /* 释放不再引用的正文：对话文件替换之后或对话删除时调用；有计数归零时安排一次后台清理 */
+    public static void release(Set<String> hashes) throws IOException {
+        if (hashes.isEmpty()) return;
+        boolean released = updateRefs(r -> {
+            boolean zero = false;
+            for (String h : hashes) {
+                if (r.merge(h, -1, Integer::sum) <= 0) {
+                    r.remove(h);
+                    zero = true;
+                }
+            }
+            return zero;
+        });
+        if (released) scheduleGc();
+    }
+
+    /* 合并排队：已经有一次清理在等待时不再重复提交 */
+    public static void scheduleGc() {
+        if (GC_PENDING.compareAndSet(false, true)) {
+            GC.execute(() -> {
+                GC_PENDING.set(false);
+                try {
+                    gc();
+                } catch (IOException e) {
+                    System.err.println("⚠️ 清理消息正文失败: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * 删除没有任何对话文件引用、且超过宽限期的正文，返回删除个数
+     * 引用关系以扫描对话文件为准（在锁外进行），计数只是提示：仍被引用但计数缺失或归零的按扫描结果修正
+     * 扫描之后才写入或复用的正文修改时间是新的，落在宽限期内不会被删
+     */
+    public static int gc() throws IOException {
+        if (!Files.exists(DIR)) return 0;
+        long t0 = System.nanoTime();
+        List<Path> files;
+        try (Stream<Path> s = Files.walk(DIR, 2)) {
+            files = s.filter(p -> p.getParent() != null && !p.getParent().equals(DIR) && Files.isRegularFile(p)).toList();
+        }
+        Map<String, Integer> live = ConversationStore.referencedBlobs();
+        long now = System.currentTimeMillis();
+        int[] deleted = {0};
+        updateRefs(r -> {
+            for (Path p : files) {
+                String hash = p.getFileName().toString();
+                if (hash.endsWith(".tmp")) continue;
+                Integer n = live.get(hash);
+                if (n != null) {
+                    if (r.getOrDefault(hash, 0) <= 0) r.put(hash, n);
+                } else if (age(p, now) > GRACE_MILLIS) {
+                    Files.deleteIfExists(p);
+                    r.remove(hash);
+                    deleted[0]++;
+                }
+            }
+            return false;
+        });
+        Metrics.counter("blob_gc_deleted_total").add(deleted[0]);
+        Metrics.histogram("blob_gc_us").recordSince(t0);
+        return deleted[0];
+    }
+
+    private static long age(Path p, long now) throws IOException {
+        FileTime t = Files.getLastModifiedTime(p);
+        return now - t.toMillis();
+    }
+
+    private static Path file(String hash) {
+        return DIR.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private interface RefsUpdate {
+        boolean apply(Map<String, Integer> refs) throws IOException;
+    }
+
+    /*
+     * 在锁内读取 refs.json、修改、写回，返回 update 的结果
+     * 类锁串行化本进程内的线程（同一 JVM 内重复加文件锁会抛异常），文件锁串行化多个进程
+     */
+    private static boolean updateRefs(RefsUpdate update) throws IOException {
+        synchronized (BlobStore.class) {
+            Files.createDirectories(DIR);
+            try (FileChannel ch = FileChannel.open(LOCK_FILE, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = ch.lock()) {
+                Map<String, Integer> r = Files.exists(REFS_FILE)
+                        ? MAPPER.readValue(REFS_FILE.toFile(), new TypeReference<HashMap<String, Integer>>() {
+                })
+                        : new HashMap<>();
+                boolean result = update.apply(r);
+                Path tmp = REFS_FILE.resolveSibling("refs.json.tmp");
+                MAPPER.writeValue(tmp.toFile(), r);
+                Files.move(tmp, REFS_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return result;
+            }
+        }
+    }
+
+    private static String sha256(byte[] b) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(b));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,15 +1,179 @@
 package org.example;
 
-import java.util.regex.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
+/**
+ * 代码块提取器：单遍扫描 ``` / ~~~ 围栏，返回全部代码块及其语言、文件名提示
+ */
 public class CodeExtractor {
-    /* 抓取 ```lang ... ``` 里的代码块，返回 [0]=剩余文字 [1]=代码（无围栏） */
+
+    // 文件名提示相关的正则只编译一次
+    private static final Pattern WS = Pattern.compile("\\s+");
+    private static final Pattern MD_DECOR = Pattern.compile("[#*`>]");
+    private static final Pattern HINT_SEP = Pattern.compile("[\\s:：]+");
+    private static final Pattern FILE_PREFIX = Pattern.compile("(?i)^file(name)?\\s*[:：]?");
+    private static final Pattern QUOTES = Pattern.compile("^[\"'(]+|[\"'),.;]+$");
+    private static final Pattern DRIVE = Pattern.compile("^[A-Za-z]:.*");
+    private static final Pattern PATH_CHARS = Pattern.compile("[\\w./\\-]+");
+    private static final Pattern EXT = Pattern.compile("[A-Za-z][A-Za-z0-9]*");
+
+    /** 一个围栏代码块；fileName 为模型给出的文件名提示，可能为 null */
+    public record CodeBlock(String lang, String fileName, String code) {
+    }
+
+    /** 提取结果：去掉代码块后的文字 + 按出现顺序的全部代码块 */
+    public record Result(String text, List<CodeBlock> blocks) {
+    }
+
+    /* 抓取 ```lang ... ``` 里的代码块，返回 [0]=剩余文字 [1]=第一段代码（无围栏） */
     public static String[] split(String resp) {
-        Pattern p = Pattern.compile("```(\\w+)?\\s*\\n(.*?)\\n```", Pattern.DOTALL);
-        Matcher m = p.matcher(resp);
-        if (!m.find()) return new String[]{resp, null};          // 没代码
-        String code = m.group(2);
-        String text = resp.substring(0, m.start()) + resp.substring(m.end());
-        return new String[]{text.trim(), code.trim()};
-    }
-}
\ No newline at end of file
+        Result r = extract(resp);
+        if (r.blocks().isEmpty()) return new String[]{resp, null};          // 没代码
+        return new String[]{r.text(), r.blocks().get(0).code().trim()};
+    }
+
+    /**
+     * 单遍扫描整段回复，逐行识别围栏；未闭合的最后一个代码块按到结尾处理
+     */
+    public static Result extract(String resp) {
+        List<CodeBlock> blocks = new ArrayList<>();
+        if (resp == null || resp.isEmpty()) return new Result("", blocks);
+
+        StringBuilder text = new StringBuilder();
+        StringBuilder code = new StringBuilder();
+        String fence = null;          // 当前打开的围栏（``` 或 ~~~ 的重复串），null 表示不在代码块中
+        String lang = null;
+        String hint = null;
+        String lastTextLine = "";     // 围栏前最后一行非空文字，常见写法“**src/Main.java**”
+
+        int pos = 0;
+        int len = resp.length();
+        while (pos < len) {
+            int nl = resp.indexOf('\n', pos);
+            int end = nl < 0 ? len : nl;
+            String line = resp.substring(pos, end);
+            if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+            pos = nl < 0 ? len : nl + 1;
+
+            String trimmed = line.trim();
+            if (fence == null) {
+                String open = fenceOf(trimmed);
+                if (open != null) {
+                    fence = open;
+                    String info = trimmed.substring(open.length()).trim();
+                    lang = parseLang(info);
+                    hint = hintFromInfo(info);
+                    if (hint == null) hint = hintFromLine(lastTextLine);
+                    code.setLength(0);
+                } else {
+                    text.append(line).append('\n');
+                    if (!trimmed.isEmpty()) lastTextLine = trimmed;
+                }
+            } else if (closes(trimmed, fence)) {
+                blocks.add(finish(lang, hint, code));
+                fence = null;
+                lastTextLine = "";
+            } else {
+                code.append(line).append('\n');
+            }
+        }
+        if (fence != null) {
+            blocks.add(finish(lang, hint, code));
+        }
+        return new Result(text.toString().trim(), blocks);
+    }
+
+    private static CodeBlock finish(String lang, String hint, StringBuilder code) {
+        String body = code.toString();
+        if (body.endsWith("\n")) body = body.substring(0, body.length() - 1);
+        if (hint == null) hint = hintFromFirstLine(body);
+        return new CodeBlock(lang, hint, body);
+    }
+
+    /* 行首是否为围栏，是则返回围栏串（至少 3 个 ` 或 ~） */
+    private static String fenceOf(String trimmed) {
+        if (trimmed.length() < 3) return null;
+        char c = trimmed.charAt(0);
+        if (c != '`' && c != '~') return null;
+        int n = 0;
+        while (n < trimmed.length() && trimmed.charAt(n) == c) n++;
+        return n >= 3 ? trimmed.substring(0, n) : null;
+    }
+
+    /* 闭合围栏：同种字符、长度不少于开围栏、后面不带 info */
+    private static boolean closes(String trimmed, String fence) {
+        if (trimmed.length() < fence.length()) return false;
+        char c = fence.charAt(0);
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (trimmed.charAt(i) != c) return false;
+        }
+        return true;
+    }
+
+    /* info 串形如 "java"、"java Main.java"、"java:src/Main.java"、"python title=\"a.py\"" */
+    private static String parseLang(String info) {
+        if (info.isEmpty()) return null;
+        int i = 0;
+        while (i < info.length() && (Character.isLetterOrDigit(info.charAt(i))
+                || info.charAt(i) == '+' || info.charAt(i) == '#' || info.charAt(i) == '-')) i++;
+        return i == 0 ? null : info.substring(0, i).toLowerCase();
+    }
+
+    private static String hintFromInfo(String info) {
+        int colon = info.indexOf(':');
+        if (colon > 0 && colon < info.length() - 1 && info.indexOf(' ') < 0) {
+            String p = sanitize(info.substring(colon + 1));
+            if (p != null) return p;
+        }
+        for (String tok : WS.split(info)) {
+            int eq = tok.indexOf('=');
+            if (eq > 0) tok = tok.substring(eq + 1);
+            String p = sanitize(tok);
+            if (p != null && p.indexOf('.') > 0) return p;
+        }
+        return null;
+    }
+
+    /* 围栏前一行的提示：“文件：a.py”、“### `src/Main.java`”、“**main.go**” */
+    private static String hintFromLine(String line) {
+        if (line.isEmpty() || line.length() > 200) return null;
+        String s = MD_DECOR.matcher(line).replaceAll(" ").trim();
+        String[] toks = HINT_SEP.split(s);
+        for (int i = toks.length - 1; i >= 0; i--) {
+            String p = sanitize(toks[i]);
+            if (p != null && p.indexOf('.') > 0) return p;
+        }
+        return null;
+    }
+
+    /* 代码首行注释：“// File: Main.java”、“# main.py” */
+    private static String hintFromFirstLine(String code) {
+        int nl = code.indexOf('\n');
+        String first = (nl < 0 ? code : code.substring(0, nl)).trim();
+        String body;
+        if (first.startsWith("//")) body = first.substring(2);
+        else if (first.startsWith("#") && !first.startsWith("#include") && !first.startsWith("#!")) body = first.substring(1);
+        else if (first.startsWith("--")) body = first.substring(2);
+        else return null;
+        body = body.trim();
+        if (body.toLowerCase().startsWith("file")) {
+            body = FILE_PREFIX.matcher(body).replaceFirst("").trim();
+        }
+        String p = sanitize(body);
+        return p != null && p.indexOf('.') > 0 && p.indexOf(' ') < 0 ? p : null;
+    }
+
+    /* 只接受相对路径形式的文件名，拒绝绝对路径和 .. 越界 */
+    private static String sanitize(String raw) {
+        if (raw == null) return null;
+        String p = QUOTES.matcher(raw.trim()).replaceAll("").replace('\\', '/');
+        if (p.isEmpty() || p.length() > 120) return null;
+        if (p.startsWith("/") || p.contains("..") || p.contains("//") || DRIVE.matcher(p).matches()) return null;
+        if (!PATH_CHARS.matcher(p).matches()) return null;
+        int dot = p.lastIndexOf('.');
+        if (dot <= 0 || p.charAt(dot - 1) == '/' || !EXT.matcher(p.substring(dot + 1)).matches()) return null;
+        return p;
+    }
+}
@@ -1,29 +1,29 @@
 package org.example;
 
+import org.example.model.History;
 import org.example.model.Message;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 public class ConversationService {
-    private final List<Message> history = new ArrayList<>();
+    // 不可变快照，追加时换成新快照；getHistory 直接交出当前快照，不再复制
+    private volatile History history = History.EMPTY;
 
-    public void load() throws IOException {
-        history.addAll(ConversationRepo.load());
+    public synchronized void load() throws IOException {
+        history = History.of(ConversationRepo.load());
     }
 
-    public void add(Message m) throws IOException {
-        history.add(m);
+    public synchronized void add(Message m) throws IOException {
+        history = history.append(m);
         ConversationRepo.append(m);
     }
 
-    public List<Message> getHistory() {
-        return new ArrayList<>(history);
+    public History getHistory() {
+        return history;
     }
 
-    public void clear() throws IOException {
-        history.clear();
+    public synchronized void clear() throws IOException {
+        history = History.EMPTY;
         ConversationRepo.clear();
     }
-}
\ No newline at end of file
+}
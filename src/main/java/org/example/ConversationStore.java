@@ -1,15 +1,29 @@
 package org.example;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
 import org.example.model.ConversationMeta;
+import org.example.model.History;
 import org.example.model.Message;
+import org.example.util.TtlCache;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -17,34 +31,177 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.sql.DriverManager;
 
 public class ConversationStore {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /** 流式读取消息时每次往返取回的行数 */
+    private static final int FETCH_SIZE = 256;
+
+    // 每个用户的对话列表：历史菜单每次重绘都要用，缓存后导航不再每次查库；本进程的保存/删除会写穿透
+    private static final TtlCache<Integer, List<ConversationMeta>> META_CACHE = new TtlCache<>("conversation_meta",
+            (int) ConfigManager.getLong(ConfigManager.KEY_CACHE_SIZE, 256),
+            ConfigManager.getLong(ConfigManager.KEY_CACHE_TTL, 30) * 1000);
+
+    // 每个对话文件当前引用的正文哈希，保存时据此增减引用计数
+    private static final Map<String, Set<String>> BLOB_REFS = new ConcurrentHashMap<>();
+
     // 修改：根据用户ID创建不同的存储目录
     private static Path getDir(Integer userId) {
         return Paths.get("history/user_" + userId);
     }
 
-    /* 保存 or 更新 */
+    /**
+     * 保存 or 更新
+     * 达到阈值的长正文存进 BlobStore，对话文件里只写 {"role":..,"blob":"<哈希>"}，其余消息照常写 content
+     * 顺序：写临时文件 → 登记新增引用 → 原子替换对话文件 → 释放不再引用的正文；
+     * 任一步中途失败，都不会出现对话文件引用着计数已归零的正文
+     */
     public static void save(ConversationMeta meta, List<Message> msgs) throws IOException {
         Path userDir = getDir(meta.getUserId());
         Files.createDirectories(userDir);
         Path metaFile = userDir.resolve(meta.getId() + ".meta");
         Path msgFile = userDir.resolve(meta.getId() + ".json");
+        long t0 = System.nanoTime();
         MAPPER.writeValue(metaFile.toFile(), meta);
-        MAPPER.writeValue(msgFile.toFile(), msgs);
+
+        Set<String> before = blobRefs(meta.getId(), msgFile);
+        Set<String> after = new HashSet<>();
+        History h = History.of(msgs);
+        Path tmp = msgFile.resolveSibling(msgFile.getFileName() + "." + ProcessHandle.current().pid()
+                + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (JsonGenerator gen = MAPPER.getFactory().createGenerator(tmp.toFile(), JsonEncoding.UTF8)) {
+                gen.writeStartArray();
+                for (int i = 0; i < h.size(); i++) {
+                    byte[] content = h.contentUtf8(i);
+                    gen.writeStartObject();
+                    gen.writeStringField("role", h.role(i).value());
+                    if (BlobStore.shouldStore(content)) {
+                        String hash = BlobStore.put(content);
+                        after.add(hash);
+                        gen.writeStringField("blob", hash);
+                    } else {
+                        gen.writeFieldName("content");
+                        gen.writeUTF8String(content, 0, content.length);
+                    }
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+            }
+            BlobStore.acquire(difference(after, before));
+            Files.move(tmp, msgFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        BLOB_REFS.put(meta.getId(), after);
+        BlobStore.release(difference(before, after));
+        Metrics.histogram("store_save_us").recordSince(t0);
+        Metrics.histogram("store_save_bytes").record(Files.size(msgFile));
     }
 
-    /* 根据 id 加载消息列表 */
-    public static List<Message> loadMsg(String id, Integer userId) throws IOException {
+    private static Set<String> difference(Set<String> a, Set<String> b) {
+        Set<String> out = new HashSet<>(a);
+        out.removeAll(b);
+        return out;
+    }
+
+    /* 根据 id 加载消息列表，blob 引用从 BlobStore 取回正文（同一正文在进程内共用一份字节） */
+    public static History loadMsg(String id, Integer userId) throws IOException {
         Path msgFile = getDir(userId).resolve(id + ".json");
-        if (!Files.exists(msgFile)) return new ArrayList<>();
-        return MAPPER.readValue(msgFile.toFile(), new TypeReference<>() {
-        });
+        if (!Files.exists(msgFile)) return History.EMPTY;
+        long t0 = System.nanoTime();
+        History msgs = History.EMPTY;
+        Set<String> refs = new HashSet<>();
+        try (JsonParser p = MAPPER.getFactory().createParser(msgFile.toFile())) {
+            if (p.nextToken() != JsonToken.START_ARRAY) throw new IOException("对话文件格式错误: " + msgFile);
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                String role = null;
+                String content = null;
+                String blob = null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    p.nextToken();
+                    switch (field) {
+                        case "role" -> role = p.getValueAsString();
+                        case "content" -> content = p.getValueAsString();
+                        case "blob" -> blob = p.getValueAsString();
+                        default -> p.skipChildren();
+                    }
+                }
+                // 跳过的轮次引用的正文也登记：下次保存时它不再被引用，计数随之减掉
+                if (blob != null) refs.add(blob);
+                History.Role r = History.Role.of(role);
+                if (r == null) {
+                    System.err.println("⚠️ 跳过角色无法识别的消息: " + role);
+                    continue;
+                }
+                if (blob == null) {
+                    msgs = msgs.append(r, content);
+                    continue;
+                }
+                byte[] b = BlobStore.get(blob);
+                if (b != null) {
+                    msgs = msgs.appendUtf8(r, b);
+                } else {
+                    System.err.println("⚠️ 消息正文缺失: " + blob);
+                    msgs = msgs.append(r, "[正文缺失]");
+                }
+            }
+        }
+        BLOB_REFS.put(id, refs);
+        Metrics.histogram("store_load_us").recordSince(t0);
+        Metrics.histogram("store_load_bytes").record(Files.size(msgFile));
+        return msgs;
+    }
+
+    /* 对话文件当前引用的正文：本进程保存或加载过就用记下的，否则从文件里读 */
+    private static Set<String> blobRefs(String id, Path msgFile) throws IOException {
+        Set<String> known = BLOB_REFS.get(id);
+        if (known != null) return known;
+        Set<String> refs = new HashSet<>();
+        if (!Files.exists(msgFile)) return refs;
+        for (JsonNode n : MAPPER.readTree(msgFile.toFile())) {
+            if (n.hasNonNull("blob")) refs.add(n.get("blob").asText());
+        }
+        return refs;
+    }
+
+    /**
+     * 扫描所有用户的对话文件（含正在写入的临时文件），统计每个正文被多少个文件引用，供 BlobStore 清理时核对
+     * 临时文件可能只写了一半，读到哪算到哪；正式的对话文件读不了时抛出，本次不做清理
+     */
+    static Map<String, Integer> referencedBlobs() throws IOException {
+        Map<String, Integer> refs = new HashMap<>();
+        Path root = Paths.get("history");
+        if (!Files.exists(root)) return refs;
+        List<Path> files;
+        try (Stream<Path> s = Files.walk(root, 2)) {
+            files = s.filter(p -> p.getParent() != null && p.getParent().getFileName().toString().startsWith("user_"))
+                    .filter(p -> p.getFileName().toString().contains(".json"))
+                    .toList();
+        }
+        for (Path f : files) {
+            boolean tmp = f.getFileName().toString().endsWith(".tmp");
+            Set<String> found = new HashSet<>();
+            try (JsonParser p = MAPPER.getFactory().createParser(f.toFile())) {
+                JsonToken t;
+                while ((t = p.nextToken()) != null) {
+                    if (t == JsonToken.FIELD_NAME && "blob".equals(p.currentName())
+                            && p.nextToken() == JsonToken.VALUE_STRING) {
+                        found.add(p.getText());
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // 扫描期间被删除，或临时文件已改名为正式文件：后者引用的正文刚写入或刷新过修改时间，在宽限期内不会被删
+                continue;
+            } catch (IOException e) {
+                if (!tmp) throw e;
+            }
+            for (String hash : found) refs.merge(hash, 1, Integer::sum);
+        }
+        return refs;
     }
 
     /* 加载指定用户的全部元信息（按 lastMsgTime 倒序） */
@@ -66,44 +223,50 @@ public class ConversationStore {
         }
     }
 
-    /* 删除对话 */
+    /*
+     * 删除对话；引用的正文计数减一，归零的由后台线程清理
+     * 先删数据库记录：失败时本地文件原样保留，不会出现本地已删、库里还在、下次又被列出来的半删状态
+     */
     public static void delete(String id, Integer userId) throws IOException {
+        try {
+            deleteFromDatabase(id, userId);
+        } catch (SQLException e) {
+            throw new IOException("删除数据库记录失败: " + e.getMessage(), e);
+        }
         Path userDir = getDir(userId);
+        Path msgFile = userDir.resolve(id + ".json");
+        Set<String> refs = blobRefs(id, msgFile);
         Files.deleteIfExists(userDir.resolve(id + ".meta"));
-        Files.deleteIfExists(userDir.resolve(id + ".json"));
+        Files.deleteIfExists(msgFile);
+        BLOB_REFS.remove(id);
+        BlobStore.release(refs);
     }
 
-    /* 保存对话元信息到数据库 */
-    public static void saveMetaToDatabase(ConversationMeta meta) throws SQLException {
-        String sql = """
-            MERGE conversations AS target
-            USING (SELECT ? AS id) AS source
-            ON target.id = source.id
-            WHEN MATCHED THEN
-                UPDATE SET title = ?, last_msg_time = ?
-            WHEN NOT MATCHED THEN
-                INSERT (id, user_id, title, create_time, last_msg_time)
-                VALUES (?, ?, ?, ?, ?);
-            """;
-
+    /* 从数据库删除对话，消息随外键级联删除 */
+    public static void deleteFromDatabase(String id, Integer userId) throws SQLException {
         try (Connection conn = org.example.config.DatabaseConfig.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, meta.getId());
-            pstmt.setString(2, meta.getTitle());
-            pstmt.setLong(3, meta.getLastMsgTime());
-            pstmt.setString(4, meta.getId());
-            pstmt.setInt(5, meta.getUserId());
-            pstmt.setString(6, meta.getTitle());
-            pstmt.setLong(7, meta.getCreateTime());
-            pstmt.setLong(8, meta.getLastMsgTime());
-
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM conversations WHERE id = ? AND user_id = ?")) {
+            pstmt.setString(1, id);
+            pstmt.setInt(2, userId);
             pstmt.executeUpdate();
+        } finally {
+            META_CACHE.update(userId, list -> list.stream().filter(m -> !m.getId().equals(id)).toList());
+        }
+    }
+
+    /* 保存对话元信息到数据库 */
+    public static void saveMetaToDatabase(ConversationMeta meta) throws SQLException {
+        try (Connection conn = org.example.config.DatabaseConfig.getConnection()) {
+            mergeMeta(conn, meta);
         }
+        cacheMeta(meta);
     }
 
     /* 从数据库加载用户对话元信息 */
     public static List<ConversationMeta> loadMetaFromDatabase(Integer userId) throws SQLException {
+        List<ConversationMeta> cached = META_CACHE.get(userId);
+        if (cached != null) return cached;
+
         String sql = "SELECT id, title, create_time, last_msg_time FROM conversations WHERE user_id = ? ORDER BY last_msg_time DESC";
         List<ConversationMeta> metas = new ArrayList<>();
 
@@ -125,6 +288,140 @@ public class ConversationStore {
             }
         }
 
-        return metas;
+        List<ConversationMeta> result = List.copyOf(metas);
+        META_CACHE.put(userId, result);
+        return result;
+    }
+
+    /* 写穿透：把保存后的元信息合并进该用户已缓存的列表，保持按 lastMsgTime 倒序 */
+    private static void cacheMeta(ConversationMeta meta) {
+        ConversationMeta copy = meta.toBuilder().build();
+        META_CACHE.update(meta.getUserId(), list -> {
+            List<ConversationMeta> next = new ArrayList<>(list.size() + 1);
+            next.add(copy);
+            for (ConversationMeta m : list) {
+                if (!m.getId().equals(copy.getId())) next.add(m);
+            }
+            next.sort((a, b) -> Long.compare(b.getLastMsgTime(), a.getLastMsgTime()));
+            return List.copyOf(next);
+        });
+    }
+
+    /**
+     * 保存元信息并追加新消息到数据库，同一事务内完成
+     * persisted 是 msgs 中本节点加载时已在库里、或之前已成功落库的条数，只插入其后本节点新追加的消息（批量），
+     * seq 接在库里当前最大值之后：其他节点在本节点加载之后追加的轮次不会被覆盖，本节点的新轮次也不会丢
+     * 库里还没有这个对话的消息（本地文件里的旧对话）时整段写入
+     * 起始 seq 每次在事务内查：MERGE 已锁住该对话的行，其他进程对同一对话的保存会排在后面，不会拿到同一个起始 seq
+     */
+    public static void saveToDatabase(ConversationMeta meta, List<Message> msgs, int persisted) throws SQLException {
+        long t0 = System.nanoTime();
+        try (Connection conn = org.example.config.DatabaseConfig.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                mergeMeta(conn, meta);
+                int seq = nextSeq(conn, meta.getId());
+                int from = seq == 0 ? 0 : Math.max(0, Math.min(persisted, msgs.size()));
+                int inserted = insertMessages(conn, meta.getId(), msgs, from, seq);
+                conn.commit();
+                cacheMeta(meta);
+                Metrics.histogram("db_messages_insert_rows").record(inserted);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        Metrics.histogram("db_save_conversation_us").recordSince(t0);
+    }
+
+    /**
+     * 按 seq 顺序把对话消息流式交给 sink，返回条数
+     * 只进只读结果集 + 固定 fetch size，长对话也不会一次性把结果缓冲在驱动里
+     */
+    public static int streamMessagesFromDatabase(String conversationId, Consumer<Message> sink) throws SQLException {
+        String sql = "SELECT role, content FROM messages WHERE conversation_id = ? ORDER BY seq";
+        long t0 = System.nanoTime();
+        int n = 0;
+        try (Connection conn = org.example.config.DatabaseConfig.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(FETCH_SIZE);
+            pstmt.setString(1, conversationId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    sink.accept(new Message(rs.getString(1), rs.getString(2)));
+                    n++;
+                }
+            }
+        }
+        Metrics.histogram("db_load_messages_us").recordSince(t0);
+        return n;
+    }
+
+    /**
+     * 加载对话消息：优先数据库（多个控制台节点共享），数据库不可用或尚无消息（旧对话）时退回本地文件
+     */
+    public static History loadConversation(ConversationMeta meta) throws IOException {
+        History[] msgs = {History.EMPTY};
+        try {
+            if (streamMessagesFromDatabase(meta.getId(), m -> msgs[0] = msgs[0].append(m)) > 0) return msgs[0];
+        } catch (SQLException e) {
+            System.err.println("❌ 从数据库加载消息失败，改用本地文件: " + e.getMessage());
+        }
+        return loadMsg(meta.getId(), meta.getUserId());
+    }
+
+    private static void mergeMeta(Connection conn, ConversationMeta meta) throws SQLException {
+        String sql = """
+            MERGE conversations AS target
+            USING (SELECT ? AS id) AS source
+            ON target.id = source.id
+            WHEN MATCHED THEN
+                UPDATE SET title = ?, last_msg_time = ?
+            WHEN NOT MATCHED THEN
+                INSERT (id, user_id, title, create_time, last_msg_time)
+                VALUES (?, ?, ?, ?, ?);
+            """;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, meta.getId());
+            pstmt.setString(2, meta.getTitle());
+            pstmt.setLong(3, meta.getLastMsgTime());
+            pstmt.setString(4, meta.getId());
+            pstmt.setInt(5, meta.getUserId());
+            pstmt.setString(6, meta.getTitle());
+            pstmt.setLong(7, meta.getCreateTime());
+            pstmt.setLong(8, meta.getLastMsgTime());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static int nextSeq(Connection conn, String conversationId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT ISNULL(MAX(seq) + 1, 0) FROM messages WITH (UPDLOCK, HOLDLOCK) WHERE conversation_id = ?")) {
+            pstmt.setString(1, conversationId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /* 插入 msgs[from..]，seq 从 firstSeq 起连续编号 */
+    private static int insertMessages(Connection conn, String conversationId, List<Message> msgs, int from, int firstSeq)
+            throws SQLException {
+        if (from >= msgs.size()) return 0;
+        String sql = "INSERT INTO messages (conversation_id, seq, role, content, created_at) VALUES (?, ?, ?, ?, ?)";
+        long now = System.currentTimeMillis();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = from; i < msgs.size(); i++) {
+                Message m = msgs.get(i);
+                pstmt.setString(1, conversationId);
+                pstmt.setInt(2, firstSeq + i - from);
+                pstmt.setString(3, m.getRole());
+                pstmt.setString(4, m.getContent());
+                pstmt.setLong(5, now);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        return msgs.size() - from;
     }
-}
\ No newline at end of file
+}
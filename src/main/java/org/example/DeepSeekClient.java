@@ -1,66 +1,355 @@
 package org.example;
 
 import okhttp3.*;
+import okio.BufferedSource;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
 import org.example.model.*;
+import org.example.usage.Feature;
+import org.example.usage.UsageLedger;
+import org.example.usage.UsageTag;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DeepSeekClient {
-    private static final String API = "https://api.deepseek.com/v1/chat/completions";
+    public static final String DEFAULT_API = "https://api.deepseek.com/v1/chat/completions";
 //    private final OkHttpClient client = new OkHttpClient();
     private final OkHttpClient client = new OkHttpClient.Builder()
+            .dispatcher(dispatcher())
             .connectTimeout(20, TimeUnit.SECONDS)
             .readTimeout(300, TimeUnit.SECONDS)   // 超时延长了
             .writeTimeout(20, TimeUnit.SECONDS)
             .build();
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final String api;
+    private final HedgePolicy hedge;
+    private final KeyPool keys;
+
+    /* 接口地址：系统属性 deepseek.api.url > 环境变量 DEEPSEEK_API_URL > 配置 api.url > 官方地址 */
+    public DeepSeekClient() {
+        this(ConfigManager.getApiUrl());
+    }
+
+    /* 指定接口地址，如本地模拟服务 http://localhost:18080/v1/chat/completions */
+    public DeepSeekClient(String api) {
+        this(api, HedgePolicy.fromConfig());
+    }
+
+    public DeepSeekClient(String api, HedgePolicy hedge) {
+        this(api, hedge, KeyPool.fromConfig());
+    }
+
+    /* 传入的 key 属于 keys 时，每个请求由密钥池挑选实际使用的密钥 */
+    public DeepSeekClient(String api, HedgePolicy hedge, KeyPool keys) {
+        this.api = api == null || api.isBlank() ? DEFAULT_API : api.trim();
+        this.hedge = hedge;
+        this.keys = keys;
+    }
+
+    public String getApi() {
+        return api;
+    }
 
     public String chat(String key, String user) throws IOException {
-        return call(key, List.of(new Message("user", user)), "deepseek-chat", 0.7);
+        return chat(key, user, UsageTag.NONE);
     }
 
     public String code(String key, String user) throws IOException {
-        return call(key, List.of(new Message("user", user)), "deepseek-coder", 0.2);
+        return code(key, user, UsageTag.NONE);
     }
 
     public String chatWithContext(String key, List<Message> hist, String newUser) throws IOException {
-        List<Message> tmp = new java.util.ArrayList<>(hist);
-        tmp.add(new Message("user", newUser));
-        return call(key, tmp, "deepseek-chat", 0.7);
-    }
-
-    private String call(String key, List<Message> messages, String model, double temp) throws IOException {
-        // 把原来出现 DeepSeekRequest.Message 的地方全部换成 **公共 Message**
-        List<Message> reqMsgs = messages.stream()
-                .map(m -> Message.builder()
-                        .role(m.getRole())
-                        .content(m.getContent())
-                        .build())
-                .collect(Collectors.toList());
-        DeepSeekRequest req = DeepSeekRequest.builder()
-                .model(model).messages(reqMsgs)
-                .temperature(temp).top_p(0.95).build();
+        return chatWithContext(key, hist, newUser, UsageTag.NONE);
+    }
+
+    /* 带用量归属的调用：token 用量记到 tag 指定的 用户 / 对话 / 功能 上 */
+    public String chat(String key, String user, UsageTag tag) throws IOException {
+        return call(key, null, History.EMPTY, user, "deepseek-chat", 0.7, tag);
+    }
 
+    public String code(String key, String user, UsageTag tag) throws IOException {
+        return call(key, null, History.EMPTY, user, "deepseek-coder", 0.2, tag);
+    }
+
+    /* 按固定前缀布局的提示词调用，见 Prompt */
+    public String chat(String key, Prompt prompt, UsageTag tag) throws IOException {
+        return call(key, prompt.system(), History.EMPTY, prompt.user(), "deepseek-chat", 0.7, tag);
+    }
+
+    public String code(String key, Prompt prompt, UsageTag tag) throws IOException {
+        return call(key, prompt.system(), History.EMPTY, prompt.user(), "deepseek-coder", 0.2, tag);
+    }
+
+    /**
+     * 带上下文对话：固定 system + 历史（原样、按序）+ 新消息
+     * hist 不应包含 newUser；每轮请求都是上一轮请求的前缀延伸，服务端可复用已缓存的历史部分
+     * 三段直接依次写进请求体，历史不做复制
+     */
+    public String chatWithContext(String key, List<Message> hist, String newUser, UsageTag tag) throws IOException {
+        return call(key, Prompts.CHAT_SYSTEM, hist, newUser, "deepseek-chat", 0.7, tag);
+    }
+
+    /**
+     * 可取消的带上下文对话（流式）：按 SSE 逐段接收，文本随到随记入 gen
+     * 期间其他线程调用 gen.cancel() 会立即断开连接；取消时不抛异常，返回已收到的部分，调用方用 gen.isCancelled() 区分
+     */
+    public String chatWithContextStream(String key, List<Message> hist, String newUser, UsageTag tag, Generation gen)
+            throws IOException {
+        String model = "deepseek-chat";
         RequestBody body = RequestBody.create(
-                mapper.writeValueAsString(req),
+                toRequestJson(Prompts.CHAT_SYSTEM, hist, newUser, model, 0.7, true),
                 MediaType.parse("application/json")
         );
 
-        Request request = new Request.Builder()
-                .url(API).post(body)
-                .addHeader("Authorization", "Bearer " + key)
-                .build();
+        long t0 = System.nanoTime();
+        String status = "error";
+        try (KeyPool.Lease lease = keys.acquire(key); Response resp = send(lease, body, tag.feature(), false, gen)) {
+            status = String.valueOf(resp.code());
+            if (!resp.isSuccessful() || resp.body() == null)
+                throw new IOException("HTTP " + resp.code());
+            BufferedSource src = resp.body().source();
+            boolean first = true;
+            String line;
+            while ((line = src.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) continue;
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) break;
+                JsonNode chunk = mapper.readTree(data);
+                String delta = chunk.path("choices").path(0).path("delta").path("content").asText("");
+                if (first && !delta.isEmpty()) {
+                    Metrics.histogram("deepseek_ttft_us", "model", model).recordSince(t0);
+                    first = false;
+                }
+                gen.append(delta);
+                if (chunk.hasNonNull("usage")) {
+                    Usage usage = mapper.treeToValue(chunk.get("usage"), Usage.class);
+                    recordUsage(model, tag.feature(), usage);
+                    UsageLedger.record(tag, model, usage);
+                }
+            }
+            if (!gen.finish()) status = "cancelled";
+            return gen.text();
+        } catch (IOException e) {
+            // 取消表现为读写时的 IOException（Canceled / Socket closed），此时返回部分结果
+            if (!gen.isCancelled()) throw e;
+            status = "cancelled";
+            return gen.text();
+        } finally {
+            if ("cancelled".equals(status)) {
+                Metrics.counter("deepseek_cancelled_total", "feature", tag.feature().getCode()).inc();
+                Metrics.histogram("deepseek_cancelled_chars").record(gen.length());
+            }
+            Metrics.histogram("deepseek_call_latency_us", "model", model).recordSince(t0);
+            Metrics.counter("deepseek_requests_total", "model", model, "status", status).inc();
+        }
+    }
+
+    private String call(String key, String system, List<Message> hist, String user, String model, double temp,
+                        UsageTag tag) throws IOException {
+        RequestBody body = RequestBody.create(
+                toRequestJson(system, hist, user, model, temp),
+                MediaType.parse("application/json")
+        );
 
-        try (Response resp = client.newCall(request).execute()) {
+        long t0 = System.nanoTime();
+        String status = "error";
+        boolean hedged = hedge.appliesTo(tag.feature());
+        try (KeyPool.Lease lease = keys.acquire(key); Response resp = send(lease, body, tag.feature(), hedged, null)) {
+            status = String.valueOf(resp.code());
+            // 非流式调用下首字时间即收到响应头的时间
+            long ttftMs = resp.receivedResponseAtMillis() - resp.sentRequestAtMillis();
+            Metrics.histogram("deepseek_ttft_us", "model", model).record(ttftMs * 1000);
             if (!resp.isSuccessful() || resp.body() == null)
                 throw new IOException("HTTP " + resp.code());
+            // 对冲调用的样本由 executeHedged 按首个请求的发出时间记录
+            if (!hedged) hedge.recordTtft(tag.feature(), ttftMs);
             DeepSeekResponse res = mapper.readValue(resp.body().string(), DeepSeekResponse.class);
+            recordUsage(model, tag.feature(), res.getUsage());
+            UsageLedger.record(tag, model, res.getUsage());
             return res.getChoices().get(0).getMessage().getContent();
+        } finally {
+            Metrics.histogram("deepseek_call_latency_us", "model", model).recordSince(t0);
+            // 按功能区分是否对冲，开启前后的 p50 / p99 可在 stats 中直接对比
+            Metrics.histogram("deepseek_feature_latency_us", "feature", tag.feature().getCode(),
+                    "mode", hedged ? "hedged" : "plain").recordSince(t0);
+            Metrics.counter("deepseek_requests_total", "model", model, "status", status).inc();
+        }
+    }
+
+    /**
+     * 用 lease 当前的密钥发出请求；429 时换池里下一个未被限流的密钥重发（请求体可重复发送）
+     * gen 不为空时是流式请求，调用登记到 gen 上以便取消
+     */
+    private Response send(KeyPool.Lease lease, RequestBody body, Feature feature, boolean hedged, Generation gen)
+            throws IOException {
+        while (true) {
+            Request.Builder rb = new Request.Builder()
+                    .url(api).post(body)
+                    .addHeader("Authorization", "Bearer " + lease.key());
+            Response resp;
+            if (gen != null) {
+                Call c = client.newCall(rb.addHeader("Accept", "text/event-stream").build());
+                gen.attach(c);
+                resp = c.execute();
+            } else {
+                Request request = rb.build();
+                resp = hedged ? executeHedged(request, feature) : client.newCall(request).execute();
+            }
+            lease.record(resp.code(), resp.headers());
+            if (resp.code() != 429 || !lease.rotate()) return resp;
+            resp.close();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 对冲执行：先异步发一个请求，等待 delay 毫秒仍未收到响应头就再发一个相同请求，
+     * 先拿到成功响应的胜出，另一个立即取消；失败的响应（429、5xx）不算胜出，关掉后继续等另一个，
+     * 都失败时把最后一个失败响应交给调用方（429 照常换密钥），或抛出最后一个异常
+     */
+    private Response executeHedged(Request request, Feature feature) throws IOException {
+        CompletableFuture<Response> winner = new CompletableFuture<>();
+        AtomicReference<Call> won = new AtomicReference<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        Callback cb = new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                if (response.isSuccessful()) {
+                    if (won.compareAndSet(null, call)) winner.complete(response);
+                    else response.close();
+                } else if (pending.decrementAndGet() == 0 && won.compareAndSet(null, call)) {
+                    winner.complete(response);
+                } else {
+                    response.close();
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (pending.decrementAndGet() == 0) winner.completeExceptionally(e);
+            }
+        };
+
+        Call primary = client.newCall(request);
+        Call backup = null;
+        long primarySentAt = System.currentTimeMillis();
+        primary.enqueue(cb);
+        String f = feature.getCode();
+        try {
+            Response resp;
+            try {
+                resp = winner.get(hedge.delayMillis(feature), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 先登记再检查：首个请求恰好在此刻失败时，要么已经交出结果（不再对冲），要么会等对冲请求
+                pending.incrementAndGet();
+                if (!winner.isDone()) {
+                    backup = client.newCall(request);
+                    backup.enqueue(cb);
+                    Metrics.counter("deepseek_hedge_total", "feature", f, "result", "fired").inc();
+                }
+                resp = winner.get();
+                if (backup != null) {
+                    Metrics.counter("deepseek_hedge_total", "feature", f,
+                            "result", won.get() == primary ? "primary_won" : "backup_won").inc();
+                }
+            }
+            // 首字时间样本一律从首个请求发出算起：按对冲请求自己的发出时间算会把分位数越拉越低，对冲越来越早
+            if (resp.isSuccessful()) hedge.recordTtft(feature, resp.receivedResponseAtMillis() - primarySentAt);
+            return resp;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("调用被中断");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            // 取消落败或仍在进行的请求，释放连接
+            if (won.get() != primary) primary.cancel();
+            if (backup != null && won.get() != backup) backup.cancel();
+        }
+    }
+
+    /*
+     * 对冲请求走 enqueue，受 Dispatcher 限制：默认同一主机最多并发 5 个，超出的在本地排队，
+     * 对冲等待反而被排队时间拖长。放宽到上游并发上限的两倍，每个请求连同它的对冲请求都能立即发出
+     */
+    private static Dispatcher dispatcher() {
+        int max = (int) Math.max(64, 2 * ConfigManager.getLong(ConfigManager.KEY_SERVER_UPSTREAM, 32));
+        Dispatcher d = new Dispatcher();
+        d.setMaxRequests(max);
+        d.setMaxRequestsPerHost(max);
+        return d;
+    }
+
+    private static void recordUsage(String model, Feature feature, Usage usage) {
+        if (usage == null) return;
+        Metrics.counter("deepseek_prompt_tokens_total", "model", model).add(usage.getPromptTokens());
+        Metrics.counter("deepseek_completion_tokens_total", "model", model).add(usage.getCompletionTokens());
+        // 服务端上下文缓存：命中的输入 token 计费更低，按功能统计命中率
+        Metrics.counter("deepseek_prompt_cache_tokens_total", "feature", feature.getCode(), "result", "hit")
+                .add(usage.getPromptCacheHitTokens());
+        Metrics.counter("deepseek_prompt_cache_tokens_total", "feature", feature.getCode(), "result", "miss")
+                .add(usage.getPromptCacheMissTokens());
+    }
+
+    /* 请求体序列化，单独拆出便于基准测试 */
+    public byte[] toRequestJson(List<Message> messages, String model, double temp) throws IOException {
+        return toRequestJson(null, messages, null, model, temp);
+    }
+
+    /**
+     * 直接流式写出 UTF-8 请求体（字段与 DeepSeekRequest 一致）：system、hist、user 依次写入 messages，
+     * 为空的 system / user 跳过；hist 是 History 时正文字节原样转义写出，不构造中间对象
+     */
+    public byte[] toRequestJson(String system, List<Message> hist, String user, String model, double temp) throws IOException {
+        return toRequestJson(system, hist, user, model, temp, false);
+    }
+
+    /* stream 为 true 时请求 SSE 输出，并要求在最后一段附带 usage */
+    private byte[] toRequestJson(String system, List<Message> hist, String user, String model, double temp,
+                                 boolean stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (hist instanceof History h ? (int) h.contentBytes() : 0));
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeStringField("model", model);
+            gen.writeArrayFieldStart("messages");
+            if (system != null && !system.isEmpty()) writeMessage(gen, "system", system);
+            if (hist instanceof History h) {
+                h.writeTo(gen);
+            } else {
+                for (Message m : hist) writeMessage(gen, m.getRole(), m.getContent());
+            }
+            if (user != null) writeMessage(gen, "user", user);
+            gen.writeEndArray();
+            gen.writeNumberField("temperature", temp);
+            gen.writeNumberField("top_p", 0.95);
+            if (stream) {
+                gen.writeBooleanField("stream", true);
+                gen.writeObjectFieldStart("stream_options");
+                gen.writeBooleanField("include_usage", true);
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeMessage(JsonGenerator gen, String role, String content) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("role", role);
+        gen.writeStringField("content", content);
+        gen.writeEndObject();
+    }
+}
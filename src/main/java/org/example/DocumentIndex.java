@@ -0,0 +1,256 @@
+package org.example;
+
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 单个文件的本地检索索引：按段落切分，BM25 打分，中日韩文字按相邻两字切词，拉丁字母和数字按词切
+ * 索引按文件内容的 SHA-256 缓存在配置目录的 index/ 下，文件没变就不再重建
+ *
+ * 用法：DocumentIndex.forFile(path).search("问题", 5)
+ */
+public class DocumentIndex {
+
+    /** 每段的目标长度（字符），在此附近的换行或句末处切开 */
+    public static final int PASSAGE_CHARS = 600;
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MAGIC = 0x424d3235;   // "BM25"
+    private static final int VERSION = 1;
+
+    /** 命中的段落：原文中的序号、分数和文本 */
+    public record Hit(int index, double score, String text) {
+    }
+
+    private final List<String> passages;
+    private final int[] lengths;
+    private final double avgLength;
+    /** 词 → [段落序号, 词频, 段落序号, 词频 …] */
+    private final Map<String, int[]> postings;
+
+    private DocumentIndex(List<String> passages, int[] lengths, Map<String, int[]> postings) {
+        this.passages = passages;
+        this.lengths = lengths;
+        this.postings = postings;
+        long total = 0;
+        for (int l : lengths) total += l;
+        this.avgLength = lengths.length == 0 ? 0 : (double) total / lengths.length;
+    }
+
+    /* 取文件的索引：先查磁盘缓存，没有再切段建索引并写缓存 */
+    public static DocumentIndex forFile(Path file) throws IOException {
+        Path cache = Paths.get(ConfigManager.getConfigDir(), "index", FileTool.sha256(file) + "-" + PASSAGE_CHARS + ".idx");
+        if (Files.exists(cache)) {
+            try {
+                DocumentIndex idx = load(cache);
+                Metrics.counter("retrieval_index_cache_total", "result", "hit").inc();
+                return idx;
+            } catch (IOException e) {
+                // 缓存损坏或版本不符，重建覆盖
+            }
+        }
+        Metrics.counter("retrieval_index_cache_total", "result", "miss").inc();
+        long t0 = System.nanoTime();
+        DocumentIndex idx;
+        try (Stream<String> chunks = FileTool.chunks(file, FileTool.DEFAULT_CHUNK_CHARS)) {
+            idx = build(split(chunks.iterator()));
+        }
+        Metrics.histogram("retrieval_index_us").recordSince(t0);
+        idx.save(cache);
+        return idx;
+    }
+
+    public static DocumentIndex build(List<String> passages) {
+        int[] lengths = new int[passages.size()];
+        Map<String, List<Integer>> tmp = new HashMap<>();
+        for (int i = 0; i < passages.size(); i++) {
+            List<String> terms = tokenize(passages.get(i));
+            lengths[i] = terms.size();
+            Map<String, Integer> tf = new HashMap<>();
+            for (String t : terms) tf.merge(t, 1, Integer::sum);
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                List<Integer> p = tmp.computeIfAbsent(e.getKey(), k -> new ArrayList<>());
+                p.add(i);
+                p.add(e.getValue());
+            }
+        }
+        Map<String, int[]> postings = new HashMap<>(tmp.size() * 2);
+        tmp.forEach((t, p) -> postings.put(t, p.stream().mapToInt(Integer::intValue).toArray()));
+        return new DocumentIndex(List.copyOf(passages), lengths, postings);
+    }
+
+    /* BM25 取分数最高的 k 段，按原文顺序返回，便于模型连贯阅读 */
+    public List<Hit> search(String query, int k) {
+        long t0 = System.nanoTime();
+        int n = passages.size();
+        double[] scores = new double[n];
+        for (String term : new LinkedHashSet<>(tokenize(query))) {
+            int[] p = postings.get(term);
+            if (p == null) continue;
+            int df = p.length / 2;
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            for (int j = 0; j < p.length; j += 2) {
+                int doc = p[j];
+                int tf = p[j + 1];
+                double norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+        PriorityQueue<Integer> top = new PriorityQueue<>(Comparator.comparingDouble(i -> scores[i]));
+        for (int i = 0; i < n; i++) {
+            if (scores[i] <= 0) continue;
+            top.add(i);
+            if (top.size() > k) top.poll();
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (int i : top) hits.add(new Hit(i, scores[i], passages.get(i)));
+        hits.sort(Comparator.comparingInt(Hit::index));
+        Metrics.histogram("retrieval_search_us").recordSince(t0);
+        return hits;
+    }
+
+    public int size() {
+        return passages.size();
+    }
+
+    /* 原文总字符数 */
+    public long totalChars() {
+        long total = 0;
+        for (String p : passages) total += p.length();
+        return total;
+    }
+
+    /**
+     * 切词：NFKC + 小写；连续的字母数字为一个词，连续的中日韩文字取相邻两字（单字成段时取单字）
+     */
+    static List<String> tokenize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        List<String> out = new ArrayList<>();
+        int[] cps = s.codePoints().toArray();
+        int i = 0;
+        while (i < cps.length) {
+            int cp = cps[i];
+            if (isCjk(cp)) {
+                int j = i;
+                while (j < cps.length && isCjk(cps[j])) j++;
+                if (j - i == 1) out.add(new String(cps, i, 1));
+                for (int x = i; x + 1 < j; x++) out.add(new String(cps, x, 2));
+                i = j;
+            } else if (Character.isLetterOrDigit(cp)) {
+                int j = i;
+                while (j < cps.length && Character.isLetterOrDigit(cps[j]) && !isCjk(cps[j])) j++;
+                out.add(new String(cps, i, j - i));
+                i = j;
+            } else {
+                i++;
+            }
+        }
+        return out;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript sc = Character.UnicodeScript.of(cp);
+        return sc == Character.UnicodeScript.HAN || sc == Character.UnicodeScript.HIRAGANA
+                || sc == Character.UnicodeScript.KATAKANA || sc == Character.UnicodeScript.HANGUL;
+    }
+
+    /* 把定长文本块重新切成段：在目标长度的后半段里找最后一个换行或句末标点，找不到就硬切 */
+    static List<String> split(Iterator<String> chunks) {
+        List<String> out = new ArrayList<>();
+        StringBuilder pending = new StringBuilder();
+        while (chunks.hasNext()) {
+            pending.append(chunks.next());
+            while (pending.length() >= PASSAGE_CHARS) {
+                int cut = cutPoint(pending);
+                addPassage(out, pending.substring(0, cut));
+                pending.delete(0, cut);
+            }
+        }
+        addPassage(out, pending.toString());
+        return out;
+    }
+
+    private static int cutPoint(CharSequence s) {
+        for (int i = PASSAGE_CHARS - 1; i >= PASSAGE_CHARS / 2; i--) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '。' || c == '！' || c == '？' || c == '；') return i + 1;
+        }
+        for (int i = PASSAGE_CHARS - 1; i >= PASSAGE_CHARS / 2; i--) {
+            if (s.charAt(i) == ' ') return i + 1;
+        }
+        return PASSAGE_CHARS;
+    }
+
+    private static void addPassage(List<String> out, String p) {
+        String t = p.strip();
+        if (!t.isEmpty()) out.add(t);
+    }
+
+    /* 二进制缓存：段落原文 + 段长 + 倒排表，gzip 压缩；先写临时文件再改名 */
+    private void save(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp), FileTool.BUFFER_SIZE)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(passages.size());
+            for (int i = 0; i < passages.size(); i++) {
+                writeString(out, passages.get(i));
+                out.writeInt(lengths[i]);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, int[]> e : postings.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue().length);
+                for (int v : e.getValue()) out.writeInt(v);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static DocumentIndex load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file), FileTool.BUFFER_SIZE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("索引格式不符: " + file);
+            int n = in.readInt();
+            List<String> passages = new ArrayList<>(n);
+            int[] lengths = new int[n];
+            for (int i = 0; i < n; i++) {
+                passages.add(readString(in));
+                lengths[i] = in.readInt();
+            }
+            int terms = in.readInt();
+            Map<String, int[]> postings = new HashMap<>(terms * 2);
+            for (int t = 0; t < terms; t++) {
+                String term = readString(in);
+                int[] p = new int[in.readInt()];
+                for (int j = 0; j < p.length; j++) p[j] = in.readInt();
+                postings.put(term, p);
+            }
+            return new DocumentIndex(passages, lengths, postings);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
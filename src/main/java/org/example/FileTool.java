@@ -1,23 +1,191 @@
 package org.example;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
 import java.nio.file.*;
-import java.util.stream.Collectors;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class FileTool {
+
+    /** 读缓冲大小：无论文件多大，单次只占用这么多字节 */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    /** 默认每个文本块的字符数 */
+    public static final int DEFAULT_CHUNK_CHARS = 8000;
+
+    /* GBK 的超集，国内 Windows 上的中文文本多为此编码 */
+    private static final Charset GB = Charset.isSupported("GB18030") ? Charset.forName("GB18030") : Charset.forName("GBK");
+
     public static String read(String path) throws IOException {
         Path p = Paths.get(path);
         if (!Files.exists(p)) throw new NoSuchFileException(path);
-        return Files.readString(p);
+        Charset cs = detectCharset(p);
+        String s = new String(Files.readAllBytes(p), cs);
+        return s.startsWith("\uFEFF") ? s.substring(1) : s;
     }
 
     public static void write(String path, String content) throws IOException {
         Path p = Paths.get(path);
-        Files.createDirectories(p.getParent());
+        ensureParent(p);
         Files.writeString(p, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
     }
 
+    /* 追加写入（UTF-8），文件不存在则创建 */
+    public static void append(String path, String content) throws IOException {
+        Path p = Paths.get(path);
+        ensureParent(p);
+        Files.writeString(p, content, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 打开一个基于 FileChannel 的 UTF-8 流式写入器，append=false 时截断原文件
+     */
+    public static Writer openWriter(Path p, boolean append) throws IOException {
+        ensureParent(p);
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedWriter(Channels.newWriter(ch, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    /* 把文本块流逐块写出，不在内存中拼整篇 */
+    public static void writeChunks(Path p, Iterator<String> chunks, boolean append) throws IOException {
+        try (Writer w = openWriter(p, append)) {
+            while (chunks.hasNext()) w.write(chunks.next());
+        }
+    }
+
+    /**
+     * 检测文件编码：先看 BOM，再对开头一段做严格 UTF-8 校验，不通过则按 GBK(GB18030) 处理
+     */
+    public static Charset detectCharset(Path p) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            while (buf.hasRemaining() && ch.read(buf) > 0) {
+                // 读满采样缓冲或到文件末尾
+            }
+        }
+        buf.flip();
+        return detectCharset(buf);
+    }
+
+    /* 对已读入内存的内容检测编码，只看开头 BUFFER_SIZE 字节 */
+    public static Charset detectCharset(byte[] data) {
+        return detectCharset(ByteBuffer.wrap(data, 0, Math.min(data.length, BUFFER_SIZE)));
+    }
+
+    private static Charset detectCharset(ByteBuffer buf) {
+        int n = buf.remaining();
+        int p0 = buf.position();
+        if (n >= 3 && (buf.get(p0) & 0xFF) == 0xEF && (buf.get(p0 + 1) & 0xFF) == 0xBB && (buf.get(p0 + 2) & 0xFF) == 0xBF) {
+            return StandardCharsets.UTF_8;
+        }
+        if (n >= 2 && (buf.get(p0) & 0xFF) == 0xFF && (buf.get(p0 + 1) & 0xFF) == 0xFE) return StandardCharsets.UTF_16LE;
+        if (n >= 2 && (buf.get(p0) & 0xFF) == 0xFE && (buf.get(p0 + 1) & 0xFF) == 0xFF) return StandardCharsets.UTF_16BE;
+
+        CharsetDecoder dec = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            CoderResult r = dec.decode(buf, out, false);
+            if (r.isError()) return GB;
+            if (r.isUnderflow()) break;      // 末尾被截断的多字节序列不算错误
+            out.clear();
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /* 按检测到的编码解码整段内容，去掉开头的 BOM */
+    public static String decode(byte[] data) {
+        String s = new String(data, detectCharset(data));
+        return s.startsWith("\uFEFF") ? s.substring(1) : s;
+    }
+
+    /* 按检测到的编码，把文件切成约 chunkChars 个字符的文本块流 */
+    public static Stream<String> chunks(Path p, int chunkChars) throws IOException {
+        return chunks(p, detectCharset(p), 0, chunkChars);
+    }
+
+    /**
+     * 从字节偏移 offset 起按块读取，内存占用固定为一个读缓冲 + 一个字符块
+     * 返回的 Stream 需要关闭（try-with-resources）以释放文件句柄
+     */
+    public static Stream<String> chunks(Path p, Charset cs, long offset, int chunkChars) throws IOException {
+        return chunks(p, cs, offset, Long.MAX_VALUE, chunkChars);
+    }
+
+    /* 只读字节区间 [offset, limit)，用于增量处理正在增长的文件 */
+    public static Stream<String> chunks(Path p, Charset cs, long offset, long limit, int chunkChars) throws IOException {
+        ChunkIterator it = new ChunkIterator(p, cs, offset, limit, chunkChars);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(it::close);
+    }
+
+    /**
+     * 区间 [from, to) 内最后一个换行符之后的位置，没有换行返回 from
+     * 用于只处理完整的行，正在写入的半行留到下次；UTF-8 和 GBK 的多字节序列中都不会出现 0x0A
+     */
+    public static long lastLineEnd(Path p, long from, long to) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long end = to;
+            while (end > from) {
+                int len = (int) Math.min(BUFFER_SIZE, end - from);
+                long start = end - len;
+                buf.clear().limit(len);
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, start + buf.position()) < 0) break;
+                }
+                for (int i = buf.position() - 1; i >= 0; i--) {
+                    if (buf.get(i) == '\n') return start + i + 1;
+                }
+                end = start;
+            }
+            return from;
+        }
+    }
+
+    /* 内存中内容的 SHA-256（十六进制） */
+    public static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* 流式计算 SHA-256（十六进制），不把整个文件读进内存 */
+    public static String sha256(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (ch.read(buf) > 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static String guessFileName(String language) {
+        if (language == null) return "output.txt";
         return switch (language.toLowerCase()) {
             case "java" -> "Main.java";
             case "python" -> "main.py";
@@ -25,9 +193,107 @@ public class FileTool {
             case "cpp" -> "main.cpp";
             case "go" -> "main.go";
             case "rust" -> "main.rs";
-            case "js" -> "main.js";
-            case "ts" -> "main.ts";
+            case "js", "javascript" -> "main.js";
+            case "ts", "typescript" -> "main.ts";
+            case "kotlin", "kt" -> "Main.kt";
+            case "html" -> "index.html";
+            case "css" -> "style.css";
+            case "sql" -> "schema.sql";
+            case "bash", "sh", "shell" -> "run.sh";
             default -> "output.txt";
         };
     }
-}
\ No newline at end of file
+
+    private static void ensureParent(Path p) throws IOException {
+        Path parent = p.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+    }
+
+    /**
+     * 固定缓冲的分块解码迭代器：FileChannel → ByteBuffer → CharsetDecoder → 文本块
+     * 跨缓冲边界的多字节字符由解码器的 compact 机制处理，不会被切坏
+     */
+    private static final class ChunkIterator implements Iterator<String>, AutoCloseable {
+        private final FileChannel ch;
+        private final CharsetDecoder dec;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CharBuffer out;
+        private final long limit;
+        private boolean eof;
+        private boolean flushed;
+        private boolean bomChecked;
+        private String next;
+
+        ChunkIterator(Path p, Charset cs, long offset, long limit, int chunkChars) throws IOException {
+            this.ch = FileChannel.open(p, StandardOpenOption.READ);
+            this.ch.position(offset);
+            this.limit = limit;
+            this.bomChecked = offset > 0;
+            this.dec = cs.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.out = CharBuffer.allocate(Math.max(256, chunkChars));
+            this.in.flip();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) next = advance();
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String s = next;
+            next = null;
+            return s;
+        }
+
+        private String advance() {
+            try {
+                while (out.hasRemaining() && !flushed) {
+                    CoderResult r = dec.decode(in, out, eof);
+                    if (r.isOverflow()) break;
+                    if (eof) {
+                        flushed = dec.flush(out).isUnderflow();
+                        break;
+                    }
+                    // 输入不足：保留未解完的半个字符，再从通道读一缓冲
+                    in.compact();
+                    long left = limit - ch.position();
+                    if (left <= 0) {
+                        eof = true;
+                    } else {
+                        if (left < in.remaining()) in.limit(in.position() + (int) left);
+                        eof = ch.read(in) < 0;
+                    }
+                    in.flip();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            out.flip();
+            if (!out.hasRemaining()) {
+                out.clear();
+                return null;
+            }
+            String s = out.toString();
+            out.clear();
+            if (!bomChecked) {
+                bomChecked = true;
+                if (s.startsWith("\uFEFF")) s = s.substring(1);
+            }
+            return s;
+        }
+
+        @Override
+        public void close() {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package org.example;
+
+import org.example.usage.Feature;
+import org.example.usage.UsageTag;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 文件管道的守护模式：监听收件目录，新文件交给工作线程池处理，结果写入发件目录
+ * 台账（.ledger.tsv）记录已处理文件的内容哈希，重启后不会重复处理
+ */
+public class FolderWatcher implements AutoCloseable {
+
+    public static final String LEDGER = ".ledger.tsv";
+
+    private final DeepSeekClient client;
+    private final String key;
+    private final Path inbox;
+    private final Path outbox;
+    private final PipeOperation op;
+    private final UsageTag tag;
+    private final ExecutorService workers;
+
+    private final Set<String> done = ConcurrentHashMap.newKeySet();       // 台账：hash + 文件名
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final Set<Path> dirty = ConcurrentHashMap.newKeySet();        // 处理期间又有改动，完成后重新排队
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private volatile boolean running;
+
+    public FolderWatcher(DeepSeekClient client, String key, Path inbox, Path outbox, PipeOperation op, int workerCount) {
+        this(client, key, inbox, outbox, op, workerCount, UsageTag.of(Feature.FILE_PIPE, null));
+    }
+
+    public FolderWatcher(DeepSeekClient client, String key, Path inbox, Path outbox, PipeOperation op, int workerCount,
+                         UsageTag tag) {
+        this.client = client;
+        this.tag = tag;
+        this.key = key;
+        this.inbox = inbox.toAbsolutePath().normalize();
+        this.outbox = outbox.toAbsolutePath().normalize();
+        // 结果写进收件目录会被当成新文件再处理一遍
+        if (this.outbox.startsWith(this.inbox)) {
+            throw new IllegalArgumentException("发件目录不能是收件目录或其子目录: " + this.outbox);
+        }
+        this.op = op;
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), r -> {
+            Thread t = new Thread(r, "pipe-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /* 启动：加载台账 → 处理收件目录里已有的文件 → 开始监听新文件 */
+    public void start() throws IOException {
+        Files.createDirectories(inbox);
+        Files.createDirectories(outbox);
+        loadLedger();
+
+        watchService = FileSystems.getDefault().newWatchService();
+        inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        running = true;
+
+        try (Stream<Path> existing = Files.list(inbox)) {
+            existing.filter(Files::isRegularFile).forEach(this::submit);
+        }
+
+        watchThread = new Thread(this::watchLoop, "inbox-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void watchLoop() {
+        while (running) {
+            WatchKey wk;
+            try {
+                wk = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> ev : wk.pollEvents()) {
+                if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // 事件丢失时整目录重扫一遍，台账会过滤掉已处理的
+                    try (Stream<Path> all = Files.list(inbox)) {
+                        all.filter(Files::isRegularFile).forEach(this::submit);
+                    } catch (IOException e) {
+                        System.err.println("❌ 重扫收件目录失败: " + e.getMessage());
+                    }
+                    continue;
+                }
+                Path p = inbox.resolve((Path) ev.context());
+                if (Files.isRegularFile(p)) submit(p);
+            }
+            if (!wk.reset()) return;
+        }
+    }
+
+    private void submit(Path p) {
+        String name = p.getFileName().toString();
+        if (name.startsWith(".") || name.endsWith(".tmp") || name.endsWith(".part")) return;
+        if (!running) return;
+        if (!inFlight.add(p)) {
+            // 正在处理时又被改动：记下来，本次完成后按新内容再处理一次
+            dirty.add(p);
+            return;
+        }
+        workers.submit(() -> {
+            try {
+                process(p);
+            } finally {
+                inFlight.remove(p);
+                if (dirty.remove(p)) submit(p);
+            }
+        });
+    }
+
+    private void process(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            if (!waitUntilStable(p)) return;
+            String hash = FileTool.sha256(p);
+            String ledgerKey = hash + "\t" + name;
+            if (done.contains(ledgerKey)) {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            long t0 = System.nanoTime();
+            Path out = outbox.resolve(op.outputName(name));
+            if (op.isUseCoder()) {
+                String raw = client.code(key, op.prompt(FileTool.read(p.toString())), tag);
+                CodeExtractor.Result r = CodeExtractor.extract(raw);
+                FileTool.write(out.toString(), r.blocks().isEmpty() ? raw : r.blocks().get(0).code());
+            } else if (op == PipeOperation.TRANSLATE) {
+                // 翻译走翻译记忆，修订后重新投递的文件只翻译改动的片段
+                try (Stream<String> chunks = FileTool.chunks(p, FileTool.detectCharset(p), 0, FileTool.DEFAULT_CHUNK_CHARS);
+                     Writer w = FileTool.openWriter(out, false)) {
+                    TranslationMemory.translateStream(chunks.iterator(), "en", pr -> client.chat(key, pr, tag), w);
+                }
+            } else {
+                // 摘要按块流式处理，大文件也不会整篇读入内存
+                Charset cs = FileTool.detectCharset(p);
+                try (Stream<String> chunks = FileTool.chunks(p, cs, 0, FileTool.DEFAULT_CHUNK_CHARS);
+                     Writer w = FileTool.openWriter(out, false)) {
+                    Iterator<String> it = chunks.iterator();
+                    while (it.hasNext()) {
+                        w.write(client.chat(key, op.prompt(it.next()), tag));
+                        w.write("\n\n");
+                    }
+                }
+            }
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+
+            done.add(ledgerKey);
+            appendLedger(hash, name, "ok", ms);
+            processed.incrementAndGet();
+            System.out.println("\n✅ " + name + " → " + out.getFileName() + " (" + ms + " ms)");
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("\n❌ 处理失败 " + name + ": " + e.getMessage());
+        }
+    }
+
+    /* 等待文件写入完成：大小连续两次不变才开始处理；约 30 秒内一直在变的先跳过，写完后的 MODIFY 事件会再排队 */
+    private boolean waitUntilStable(Path p) throws IOException, InterruptedException {
+        long last = -1;
+        for (int i = 0; i < 100 && running; i++) {
+            if (!Files.exists(p)) return false;
+            long size = Files.size(p);
+            if (size == last) return true;
+            last = size;
+            Thread.sleep(300);
+        }
+        if (running) System.err.println("\n⚠️ 文件仍在写入，暂不处理: " + p.getFileName());
+        return false;
+    }
+
+    private void loadLedger() throws IOException {
+        Path ledger = outbox.resolve(LEDGER);
+        if (!Files.exists(ledger)) return;
+        for (String line : Files.readAllLines(ledger, StandardCharsets.UTF_8)) {
+            String[] f = line.split("\t");
+            if (f.length >= 3 && "ok".equals(f[2])) done.add(f[0] + "\t" + f[1]);
+        }
+    }
+
+    private synchronized void appendLedger(String hash, String name, String status, long ms) throws IOException {
+        String line = hash + "\t" + name + "\t" + status + "\t" + System.currentTimeMillis() + "\t" + ms + System.lineSeparator();
+        Files.writeString(outbox.resolve(LEDGER), line, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /* 停止监听，等待正在处理的文件完成 */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (watchService != null) watchService.close();
+        } catch (IOException ignored) {
+        }
+        if (watchThread != null) watchThread.interrupt();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.MINUTES)) workers.shutdownNow();
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+import okhttp3.Call;
+
+/**
+ * 一次可取消的流式生成：持有正在进行的 OkHttp 调用，cancel 立即断开连接、不再为后续 token 付费
+ * 已收到的文本随时可取；取消后由调用方决定保留还是丢弃这部分回复
+ *
+ * 用法：new Generation() 交给 DeepSeekClient 的流式方法，另一线程（如等待按键的主线程）调用 cancel
+ */
+public class Generation {
+
+    private final StringBuilder text = new StringBuilder();
+    private Call call;
+    private boolean cancelled;
+    private boolean finished;
+
+    /* 取消进行中的生成；已经完整结束的不受影响 */
+    public synchronized void cancel() {
+        if (finished || cancelled) return;
+        cancelled = true;
+        if (call != null) call.cancel();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /* 已收到的文本：结束后是完整回复，取消后是截至取消时的部分 */
+    public synchronized String text() {
+        return text.toString();
+    }
+
+    public synchronized int length() {
+        return text.length();
+    }
+
+    /* 登记底层调用；在此之前已取消的立即取消它 */
+    synchronized void attach(Call c) {
+        call = c;
+        if (cancelled) c.cancel();
+    }
+
+    synchronized void append(String delta) {
+        if (!cancelled) text.append(delta);
+    }
+
+    /* 收到结束标记：之后的 cancel 不再生效，返回 false 表示在此之前已被取消 */
+    synchronized boolean finish() {
+        if (cancelled) return false;
+        finished = true;
+        return true;
+    }
+}
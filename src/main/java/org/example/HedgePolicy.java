@@ -0,0 +1,97 @@
+package org.example;
+
+import org.example.config.ConfigManager;
+import org.example.usage.Feature;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 对冲请求策略：对可重复执行的调用，首个请求在“近期首字时间的某个分位数”内没有响应头时，
+ * 再发一个相同请求，先到者胜，另一个取消。默认关闭，hedge.enabled=true 开启
+ *
+ * 配置：
+ *   hedge.features      参与对冲的功能，逗号分隔（默认 translate,summary）
+ *   hedge.percentile    触发对冲的首字时间分位数，可带小数如 99.5（默认 95）
+ *   hedge.min_delay_ms  对冲等待下限，防止网络抖动时成倍放大请求（默认 500）
+ *   hedge.max_delay_ms  样本不足时的等待时间，也是等待上限（默认 10000）
+ */
+public class HedgePolicy {
+
+    /** 每个功能保留的最近样本数 */
+    private static final int WINDOW = 256;
+    /** 样本少于该数时分位数不可信，用 max_delay_ms */
+    private static final int MIN_SAMPLES = 20;
+
+    private final boolean enabled;
+    private final Set<Feature> features;
+    private final double percentile;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final Map<Feature, LatencyWindow> windows = new EnumMap<>(Feature.class);
+
+    public HedgePolicy(boolean enabled, Set<Feature> features, double percentile, long minDelayMs, long maxDelayMs) {
+        this.enabled = enabled;
+        this.features = features.isEmpty() ? EnumSet.noneOf(Feature.class) : EnumSet.copyOf(features);
+        this.percentile = Math.max(1, Math.min(99.9, percentile));
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = Math.max(minDelayMs, maxDelayMs);
+        for (Feature f : Feature.values()) windows.put(f, new LatencyWindow());
+    }
+
+    public static HedgePolicy fromConfig() {
+        Set<Feature> fs = EnumSet.noneOf(Feature.class);
+        for (String code : ConfigManager.getConfig(ConfigManager.KEY_HEDGE_FEATURES, "translate,summary").split(",")) {
+            Feature f = Feature.fromCode(code.trim());
+            if (f.getCode().equals(code.trim())) fs.add(f);
+        }
+        return new HedgePolicy(
+                Boolean.parseBoolean(ConfigManager.getConfig(ConfigManager.KEY_HEDGE_ENABLED, "false")),
+                fs,
+                ConfigManager.getDouble(ConfigManager.KEY_HEDGE_PERCENTILE, 95),
+                ConfigManager.getLong(ConfigManager.KEY_HEDGE_MIN_DELAY, 500),
+                ConfigManager.getLong(ConfigManager.KEY_HEDGE_MAX_DELAY, 10_000));
+    }
+
+    /* 该功能是否走对冲 */
+    public boolean appliesTo(Feature feature) {
+        return enabled && features.contains(feature);
+    }
+
+    /* 首个请求最多等多久再发对冲请求（毫秒） */
+    public long delayMillis(Feature feature) {
+        long p = windows.get(feature).percentile(percentile);
+        if (p < 0) return maxDelayMs;
+        return Math.max(minDelayMs, Math.min(maxDelayMs, p));
+    }
+
+    /* 记录一次成功调用的首字时间（毫秒），对冲与否都记 */
+    public void recordTtft(Feature feature, long millis) {
+        windows.get(feature).add(millis);
+    }
+
+    /** 最近 WINDOW 个样本的环形缓冲 */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[WINDOW];
+        private int size;
+        private int next;
+
+        synchronized void add(long v) {
+            samples[next] = v;
+            next = (next + 1) % WINDOW;
+            if (size < WINDOW) size++;
+        }
+
+        /* 样本不足时返回 -1 */
+        synchronized long percentile(double p) {
+            if (size < MIN_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(p / 100 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, idx))];
+        }
+    }
+}
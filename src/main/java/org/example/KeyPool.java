@@ -0,0 +1,243 @@
+package org.example;
+
+import okhttp3.Headers;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * API 密钥池：配置了多个密钥时，每个请求挑一个最合适的密钥发出，吞吐不再受单个密钥的限额约束
+ *
+ * 挑选顺序：未被限流的优先 → 进行中请求最少 → 响应头报告的剩余额度不为 0 → 最久没被限流 → 轮询
+ * 收到 429 的密钥按 Retry-After（没有时按冷却时间，连续 429 翻倍，最多 8 倍）暂停使用，
+ * 同一请求换下一个密钥重发，池里每个密钥最多试一次
+ *
+ * 密钥来自 ConfigManager.getApiKeys() 的不可变快照；配置变更后下次借用时重建，保留仍在池中的密钥的状态
+ * 调用方传入池外的密钥（如服务模式下用户登录时自带的）时原样使用，不参与调度
+ */
+public class KeyPool {
+
+    private static final int MAX_BACKOFF = 8;
+
+    /** 一个密钥的实时状态；label 只含序号，指标里不出现密钥内容 */
+    static final class KeyState {
+        final String key;
+        final String label;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile long throttledUntil;
+        volatile long lastThrottledAt;
+        volatile int strikes;
+        volatile long remainingRequests = -1;
+        volatile long remainingTokens = -1;
+
+        KeyState(String key, String label) {
+            this.key = key;
+            this.label = label;
+        }
+
+        boolean available(long now) {
+            return throttledUntil <= now;
+        }
+    }
+
+    private record Snapshot(List<String> source, List<KeyState> keys, Map<String, KeyState> byKey) {
+    }
+
+    private final Supplier<List<String>> source;
+    private final long cooldownMillis;
+    private final AtomicInteger cursor = new AtomicInteger();
+    private volatile Snapshot snapshot;
+
+    public KeyPool(Supplier<List<String>> source, long cooldownMillis) {
+        this.source = source;
+        this.cooldownMillis = Math.max(1, cooldownMillis);
+    }
+
+    public static KeyPool fromConfig() {
+        return new KeyPool(ConfigManager::getApiKeys,
+                ConfigManager.getLong(ConfigManager.KEY_KEYPOOL_COOLDOWN, 10) * 1000);
+    }
+
+    /**
+     * 借用一个密钥发请求，用完必须 close（try-with-resources）
+     * requested 属于池时按负载挑选，否则原样使用
+     */
+    public Lease acquire(String requested) {
+        Snapshot s = snapshot();
+        if (requested == null || !s.byKey().containsKey(requested)) return new Lease(s, null, requested);
+        KeyState k = pick(s, Set.of());
+        return new Lease(s, k, k.key);
+    }
+
+    public int size() {
+        return snapshot().keys().size();
+    }
+
+    /* 当前各密钥的状态，供 stats / 排查用 */
+    public List<String> describe() {
+        long now = System.currentTimeMillis();
+        List<String> out = new ArrayList<>();
+        for (KeyState k : snapshot().keys()) {
+            out.add(k.label + " " + ConfigManager.mask(k.key)
+                    + " 进行中 " + k.inFlight.get()
+                    + (k.available(now) ? "" : "，限流中还剩 " + (k.throttledUntil - now) / 1000 + " 秒")
+                    + (k.remainingRequests >= 0 ? "，剩余请求 " + k.remainingRequests : "")
+                    + (k.remainingTokens >= 0 ? "，剩余 token " + k.remainingTokens : ""));
+        }
+        return out;
+    }
+
+    private Snapshot snapshot() {
+        List<String> keys = source.get();
+        Snapshot s = snapshot;
+        if (s != null && s.source() == keys) return s;
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && s.source() == keys) return s;
+            Map<String, KeyState> old = s == null ? Map.of() : s.byKey();
+            List<KeyState> states = new ArrayList<>(keys.size());
+            Map<String, KeyState> byKey = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                KeyState k = old.get(keys.get(i));
+                if (k == null || !k.label.equals("#" + (i + 1))) {
+                    KeyState fresh = new KeyState(keys.get(i), "#" + (i + 1));
+                    if (k != null) {
+                        fresh.throttledUntil = k.throttledUntil;
+                        fresh.lastThrottledAt = k.lastThrottledAt;
+                        fresh.strikes = k.strikes;
+                    }
+                    k = fresh;
+                }
+                states.add(k);
+                byKey.put(k.key, k);
+            }
+            s = new Snapshot(keys, List.copyOf(states), Map.copyOf(byKey));
+            snapshot = s;
+            return s;
+        }
+    }
+
+    /* 从起点轮转一圈，取最合适的；exclude 是本次请求已经试过的 */
+    private KeyState pick(Snapshot s, Set<KeyState> exclude) {
+        List<KeyState> keys = s.keys();
+        long now = System.currentTimeMillis();
+        int start = Math.floorMod(cursor.getAndIncrement(), keys.size());
+        KeyState best = null;
+        for (int j = 0; j < keys.size(); j++) {
+            KeyState k = keys.get((start + j) % keys.size());
+            if (!exclude.contains(k) && (best == null || better(k, best, now))) best = k;
+        }
+        return best;
+    }
+
+    private static boolean better(KeyState a, KeyState b, long now) {
+        boolean aa = a.available(now);
+        boolean ba = b.available(now);
+        if (aa != ba) return aa;
+        // 都在限流中：最早恢复的
+        if (!aa) return a.throttledUntil < b.throttledUntil;
+        if (a.inFlight.get() != b.inFlight.get()) return a.inFlight.get() < b.inFlight.get();
+        boolean aEmpty = a.remainingRequests == 0 || a.remainingTokens == 0;
+        boolean bEmpty = b.remainingRequests == 0 || b.remainingTokens == 0;
+        if (aEmpty != bEmpty) return !aEmpty;
+        return a.lastThrottledAt < b.lastThrottledAt;
+    }
+
+    /** 一次请求对密钥的占用；429 后可 rotate 换下一个密钥 */
+    public final class Lease implements AutoCloseable {
+        private final Snapshot pool;
+        private final Set<KeyState> tried = new HashSet<>();
+        private KeyState state;
+        private String key;
+
+        private Lease(Snapshot pool, KeyState state, String key) {
+            this.pool = pool;
+            this.key = key;
+            take(state);
+        }
+
+        public String key() {
+            return key;
+        }
+
+        /* 用响应码和响应头更新当前密钥的状态 */
+        public void record(int code, Headers headers) {
+            if (state == null) return;
+            Metrics.counter("deepseek_key_requests_total", "key", state.label, "status", String.valueOf(code)).inc();
+            long now = System.currentTimeMillis();
+            if (code == 429) {
+                int strikes = Math.min(state.strikes + 1, 31);
+                state.strikes = strikes;
+                long wait = retryAfterMillis(headers.get("Retry-After"));
+                if (wait <= 0) wait = cooldownMillis * Math.min(MAX_BACKOFF, 1L << (strikes - 1));
+                state.throttledUntil = now + wait;
+                state.lastThrottledAt = now;
+                Metrics.counter("deepseek_key_throttled_total", "key", state.label).inc();
+                return;
+            }
+            if (code >= 200 && code < 300) state.strikes = 0;
+            state.remainingRequests = headerLong(headers.get("x-ratelimit-remaining-requests"), state.remainingRequests);
+            state.remainingTokens = headerLong(headers.get("x-ratelimit-remaining-tokens"), state.remainingTokens);
+            // 额度已用完但还没被 429：先让出一个冷却期
+            if (state.remainingRequests == 0 || state.remainingTokens == 0) {
+                state.throttledUntil = Math.max(state.throttledUntil, now + cooldownMillis);
+            }
+        }
+
+        /* 换一个本次还没试过、且未被限流的池内密钥；没有可换的返回 false */
+        public boolean rotate() {
+            if (state == null) return false;
+            KeyState next = pick(pool, tried);
+            if (next == null || !next.available(System.currentTimeMillis())) return false;
+            release();
+            take(next);
+            Metrics.counter("deepseek_key_rotations_total").inc();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+
+        private void take(KeyState k) {
+            state = k;
+            if (k == null) return;
+            key = k.key;
+            tried.add(k);
+            k.inFlight.incrementAndGet();
+        }
+
+        private void release() {
+            if (state != null) state.inFlight.decrementAndGet();
+            state = null;
+        }
+    }
+
+    /* Retry-After：秒数；HTTP 日期格式不常见，按没有处理 */
+    private static long retryAfterMillis(String v) {
+        if (v == null) return -1;
+        try {
+            return (long) (Double.parseDouble(v.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long headerLong(String v, long def) {
+        if (v == null) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 增长中日志的增量摘要：每个文件记住已处理到的字节偏移和滚动摘要，
+ * 刷新时只读新追加的完整行，概括后并入已有摘要，每次的代价与新增数据量成正比
+ *
+ * 状态存在配置目录 tail/ 下；文件变短或开头内容变了（轮转、被替换）时从头重新总结
+ */
+public final class LogSummarizer {
+
+    /** 用于识别文件是否被替换的开头字节数 */
+    private static final int HEAD_BYTES = 256;
+    /** 分段摘要累计超过该长度就先并入滚动摘要，避免首次处理大文件时合并请求过长 */
+    private static final int MERGE_CHARS = 8000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** 持久化的跟踪状态 */
+    public record State(String path, long offset, int headLength, String headHash, String summary,
+                        long updatedAt, int refreshes) {
+    }
+
+    /** 一次刷新的结果：reset 表示文件被轮转或替换，已从头总结 */
+    public record Refresh(State state, long newBytes, int calls, boolean reset) {
+    }
+
+    private LogSummarizer() {
+    }
+
+    /* 读取已保存的状态，没有返回 null */
+    public static State load(Path file) throws IOException {
+        Path f = stateFile(file);
+        return Files.exists(f) ? MAPPER.readValue(f.toFile(), State.class) : null;
+    }
+
+    public static void forget(Path file) throws IOException {
+        Files.deleteIfExists(stateFile(file));
+    }
+
+    public static Refresh refresh(Path file, PromptCall upstream) throws IOException {
+        long t0 = System.nanoTime();
+        State st = load(file);
+        long size = Files.size(file);
+        boolean reset = st != null && (size < st.offset() || !st.headHash().equals(head(file, st.headLength())));
+        if (st == null || reset) {
+            int headLength = (int) Math.min(HEAD_BYTES, size);
+            st = new State(file.toAbsolutePath().normalize().toString(), 0, headLength, head(file, headLength), "", 0, 0);
+        }
+
+        // 只处理到最后一个完整行，正在写入的半行留到下次
+        long end = FileTool.lastLineEnd(file, st.offset(), size);
+        if (end <= st.offset()) return new Refresh(st, 0, 0, reset);
+
+        int calls = 0;
+        String summary = st.summary();
+        Charset cs = FileTool.detectCharset(file);
+        try (Stream<String> chunks = FileTool.chunks(file, cs, st.offset(), end, FileTool.DEFAULT_CHUNK_CHARS)) {
+            Iterator<String> it = chunks.iterator();
+            String first = it.hasNext() ? it.next() : "";
+            if (!it.hasNext()) {
+                // 新增内容只有一块：原文直接并入，一次请求
+                summary = upstream.call(Prompts.logMerge(summary, first));
+                calls++;
+            } else {
+                List<String> parts = new ArrayList<>();
+                int chars = 0;
+                String chunk = first;
+                while (chunk != null) {
+                    String part = upstream.call(Prompts.logChunk(chunk));
+                    calls++;
+                    parts.add(part);
+                    chars += part.length();
+                    if (chars > MERGE_CHARS) {
+                        summary = upstream.call(Prompts.logMerge(summary, String.join("\n\n", parts)));
+                        calls++;
+                        parts.clear();
+                        chars = 0;
+                    }
+                    chunk = it.hasNext() ? it.next() : null;
+                }
+                if (!parts.isEmpty()) {
+                    summary = upstream.call(Prompts.logMerge(summary, String.join("\n\n", parts)));
+                    calls++;
+                }
+            }
+        }
+
+        // 首次处理时文件可能还不足 HEAD_BYTES，开头指纹随文件增长补全
+        int headLength = (int) Math.min(HEAD_BYTES, end);
+        State next = new State(st.path(), end, headLength, head(file, headLength), summary.strip(),
+                System.currentTimeMillis(), st.refreshes() + 1);
+        save(file, next);
+        Metrics.histogram("tail_refresh_bytes").record(end - st.offset());
+        Metrics.histogram("tail_refresh_us").recordSince(t0);
+        return new Refresh(next, end - st.offset(), calls, reset);
+    }
+
+    private static void save(Path file, State st) throws IOException {
+        Path f = stateFile(file);
+        Files.createDirectories(f.getParent());
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), st);
+        Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* 状态文件名取规范化绝对路径的哈希 */
+    private static Path stateFile(Path file) {
+        String key = file.toAbsolutePath().normalize().toString();
+        return Paths.get(ConfigManager.getConfigDir(), "tail", FileTool.sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 32) + ".json");
+    }
+
+    private static String head(Path file, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, buf.position()) < 0) break;
+            }
+        }
+        byte[] b = new byte[buf.position()];
+        buf.flip().get(b);
+        return FileTool.sha256(b);
+    }
+}
@@ -1,21 +1,47 @@
 package org.example;
 
+import org.example.auth.PasswordHasher;
 import org.example.config.ConfigManager;
+import org.example.config.DatabaseConfig;
+import org.example.metrics.Metrics;
+import org.example.metrics.MetricsReporter;
 import org.example.model.ConversationMeta;
+import org.example.model.History;
 import org.example.model.Message;
 import org.example.model.User;
 import org.example.model.UserService;
+import org.example.server.ApiServer;
+import org.example.usage.Feature;
+import org.example.usage.UsageLedger;
+import org.example.usage.UsageReport;
+import org.example.usage.UsageTag;
 import org.example.util.ConsoleUtil;
 
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.*;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 public class Main {
     // 移除硬编码的KEY
@@ -29,28 +55,55 @@ public class Main {
 
     private static User currentUser = null;
 
+    /** 后台加载全局历史（conversation.jsonl）的任务，清空历史前需等待它完成 */
+    private static CompletableFuture<Void> historyLoad = CompletableFuture.completedFuture(null);
+    /** 各启动阶段距进程启动的毫秒数，按完成顺序 */
+    private static final Map<String, Long> STARTUP_MS = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /** 针对文件提问时发给模型的段落数 */
+    private static final int ASK_TOP_K = 5;
+
+    /** 指标定时落盘目录（metrics.json / metrics.prom） */
+    private static final Path METRICS_DIR = Paths.get("metrics");
+
     public static void main(String[] args) throws IOException {
-        // 测试数据库连接
-        System.out.println("正在初始化数据库...");
-        if (!org.example.config.DatabaseConfig.testConnection()) {
-            ConsoleUtil.printLine("❌ 数据库连接失败，请检查SQL Server服务是否启动");
+        long start = System.nanoTime();
+        startMetrics();
+
+        // 守护模式：java -jar xxx.jar --watch <收件目录> <发件目录> <summary|translate|code> [工作线程数]
+        if (args.length > 0 && "--watch".equals(args[0])) {
+            watchDaemon(args);
             return;
         }
 
+        // 服务模式：java -jar xxx.jar --server [端口]
+        if (args.length > 0 && "--server".equals(args[0])) {
+            serverMode(args);
+            return;
+        }
 
+        // 数据库预热（建库建表检查）和历史加载都放到后台，登录提示立即出现
+        DatabaseConfig.initAsync().whenComplete((v, e) -> phase("数据库预热", start));
+        historyLoad = CompletableFuture.runAsync(() -> {
+            try {
+                CONV.load();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            phase("历史加载", start);
+        }, Main::background);
+        // 口令哈希迭代次数首次使用时要在本机标定，趁用户输入时在后台做掉
+        CompletableFuture.runAsync(PasswordHasher::iterations, Main::background);
+        phase("登录提示", start);
 
         // 用户登录/注册
         if (!userAuth()) {
             ConsoleUtil.printLine("认证失败，程序退出");
             return;
         }
-
-        try {
-            CONV.load();
-            ConsoleUtil.printLine("已加载历史对话");
-        } catch (IOException e) {
-            ConsoleUtil.printLine("未找到历史，开始新会话");
-        }
+        UsageLedger.start(usageFlushInterval());
+        phase("登录完成", start);
+        ConsoleUtil.printLine("⏱ 启动耗时: " + startupSummary());
 
         boolean running = true;
         while (running) {
@@ -71,6 +124,8 @@ public class Main {
                     running = false;
                 }
                 case "config" -> ConfigManager.openConfigMenu();
+                case "stats" -> showStats();
+                case "usage" -> showUsage();
                 default -> {
                     ConsoleUtil.printLine("输入无效");
                     pause();
@@ -107,6 +162,13 @@ public class Main {
         return currentApiKey;
     }
 
+    /* 非交互地判断是否已有API密钥 */
+    private static boolean hasApiKey() {
+        if (currentApiKey != null && !currentApiKey.isEmpty()) return true;
+        currentApiKey = ConfigManager.findApiKey();
+        return currentApiKey != null;
+    }
+
     /**
      * 检查API密钥是否有效
      */
@@ -142,6 +204,10 @@ public class Main {
                     """);
 
             String choice = ConsoleUtil.readLine("请选择: ").trim();
+            if (("1".equals(choice) || "2".equals(choice)) && !DatabaseConfig.awaitReady()) {
+                ConsoleUtil.printLine("❌ 数据库连接失败，请检查SQL Server服务是否启动");
+                return false;
+            }
             switch (choice) {
                 case "1" -> {
                     String username = ConsoleUtil.readLine("用户名: ").trim();
@@ -190,9 +256,10 @@ public class Main {
         final String GREEN = "\033[92m";
         final String RESET = "\033[0m";
 
-        // 构建API密钥状态行
+        // 构建API密钥状态行（只检查不提示，避免在菜单里卡住等输入）
+        boolean hasKey = hasApiKey();
         String apiStatusLine;
-        if (getApiKey() != null) {
+        if (hasKey) {
             apiStatusLine = "                API密钥:" + GREEN + " ✓ 已配置 " + CYAN;
         } else {
             apiStatusLine = "                API密钥:" + RED + " ✗ 未配置 " + CYAN;
@@ -229,13 +296,15 @@ public class Main {
     ╔═══════════════════════════════════════════════════╗
     ║         输入选项编号 [1-9] 并按 Enter 确认            ║
     ║         输入 'config' 进入配置管理                    ║
+    ║         输入 'stats' 查看运行指标                     ║
+    ║         输入 'usage' 查看 token 用量与费用              ║
     ╚═══════════════════════════════════════════════════╝
     """ + RESET;
 
         ConsoleUtil.printLine(menu);
 
         // 如果没有配置API密钥，显示提醒
-        if (getApiKey() == null) {
+        if (!hasKey) {
             ConsoleUtil.printLine(RED + """
     ╔═══════════════════════════════════════════════════╗
     ║  ⚠️  警告：未配置API密钥，部分功能可能受限              ║
@@ -297,24 +366,23 @@ public class Main {
         String id = UUID.randomUUID().toString();
         ConversationMeta meta = ConversationMeta.builder()
                 .id(id)
-                .title(first.length() > 20 ? first.substring(0, 20) + "…" : first)
+                .title(Prompts.title(first))
                 .createTime(System.currentTimeMillis())
                 .lastMsgTime(System.currentTimeMillis())
                 .userId(currentUser.getId())
                 .build();
-        List<Message> msgs = new ArrayList<>();
-        msgs.add(new Message("user", first));
+        History msgs = History.EMPTY;
 
         try {
-            // 显示处理中提示
-            System.out.print("🤔 AI正在思考中...");
-            String resp = CLIENT.chatWithContext(getApiKey(), msgs, first);
-            // 清除处理中提示
-            System.out.print("\r✅ AI回复完成！\n\n");
+            String resp = chatCancellable(meta, msgs, first);
+            if (resp == null) {
+                pause();
+                return false;
+            }
 
-            msgs.add(new Message("assistant", resp));
+            msgs = msgs.append(History.Role.USER, first).append(History.Role.ASSISTANT, resp);
             ConversationStore.save(meta, msgs);
-            ConversationStore.saveMetaToDatabase(meta);
+            ConversationStore.saveToDatabase(meta, msgs, 0);
 
             ConsoleUtil.printLine("🤖 AI: " + resp);
             ConsoleUtil.printLine("\n" + "─".repeat(50));
@@ -328,11 +396,70 @@ public class Main {
             return false;
         }
     }
+    /**
+     * 可取消的对话调用：流式请求放到后台线程，等待期间按回车即取消并立即断开连接
+     * 返回要记入对话的回复（取消后用户选择保留时是已收到的部分）；用户选择丢弃返回 null
+     */
+    private static String chatCancellable(ConversationMeta meta, History msgs, String text) throws IOException {
+        String key = getApiKey();
+        Generation gen = new Generation();
+        CompletableFuture<String> f = CompletableFuture.supplyAsync(() -> {
+            try {
+                return CLIENT.chatWithContextStream(key, msgs, text, chatTag(meta), gen);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, r -> {
+            Thread t = new Thread(r, "chat-stream");
+            t.setDaemon(true);
+            t.start();
+        });
+
+        // 显示处理中提示
+        System.out.print("🤔 AI正在思考中...（按回车取消）");
+        String resp;
+        while (true) {
+            try {
+                resp = f.get(50, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                if (ConsoleUtil.hasPendingLine()) {
+                    ConsoleUtil.readLine("");
+                    gen.cancel();
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof UncheckedIOException u ? u.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                gen.cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("对话被中断");
+            }
+        }
+        if (!gen.isCancelled()) {
+            // 清除处理中提示
+            System.out.print("\r✅ AI回复完成！\n\n");
+            return resp;
+        }
+
+        ConsoleUtil.printLine("\r⏹ 已取消生成，连接已断开");
+        if (resp.isBlank()) {
+            ConsoleUtil.printLine("尚未收到任何回复，本条消息不记入对话");
+            return null;
+        }
+        String keep = ConsoleUtil.readLine("已收到 " + resp.length() + " 字的部分回复，保存到对话? (y/n): ").trim();
+        if (!"y".equalsIgnoreCase(keep)) {
+            ConsoleUtil.printLine("已丢弃部分回复");
+            return null;
+        }
+        ConsoleUtil.printLine("");
+        return resp;
+    }
+
     /* --------------- 子流程2：继续对话 --------------- */
     /* --------------- 继续对话 --------------- */
     private static void continueConversation(ConversationMeta meta) {
         try {
-            List<Message> msgs = ConversationStore.loadMsg(meta.getId(), currentUser.getId());
+            History msgs = ConversationStore.loadConversation(meta);
             continueSingleConversation(meta, msgs);
         } catch (IOException e) {
             ConsoleUtil.printLine("❌ 加载失败: " + e.getMessage());
@@ -341,8 +468,10 @@ public class Main {
     }
 
     /* --------------- 单次对话流程 --------------- */
-    private static boolean continueSingleConversation(ConversationMeta meta, List<Message> msgs) {
+    private static boolean continueSingleConversation(ConversationMeta meta, History msgs) {
         boolean inConversation = true;
+        // 传入的历史已在库里；落库失败的轮次留到下次保存时一并补上
+        int persisted = msgs.size();
 
         while (inConversation) {
             clearScreen();
@@ -365,21 +494,20 @@ public class Main {
             if ("q".equalsIgnoreCase(in)) {
                 inConversation = false;
             } else if (!in.isEmpty()) {
-                // 处理用户输入
-                msgs.add(new Message("user", in));
-
-                // 显示处理中提示
-                System.out.print("🤔 AI正在思考中...");
                 try {
-                    String resp = CLIENT.chatWithContext(getApiKey(), msgs, in);
-                    // 清除处理中提示
-                    System.out.print("\r✅ AI回复完成！\n\n");
+                    // 历史里还没有本条消息，由 chatWithContext 追加在末尾，请求前缀与上一轮一致
+                    String resp = chatCancellable(meta, msgs, in);
+                    if (resp == null) {
+                        pause();
+                        continue;
+                    }
 
                     ConsoleUtil.printLine("🤖 AI: " + resp);
-                    msgs.add(new Message("assistant", resp));
+                    msgs = msgs.append(History.Role.USER, in).append(History.Role.ASSISTANT, resp);
                     meta.setLastMsgTime(System.currentTimeMillis());
                     ConversationStore.save(meta, msgs);
-                    ConversationStore.saveMetaToDatabase(meta);
+                    ConversationStore.saveToDatabase(meta, msgs, persisted);
+                    persisted = msgs.size();
 
                     ConsoleUtil.printLine("─".repeat(50));
                     pause(); // 等待用户查看回复
@@ -397,41 +525,110 @@ public class Main {
     private static void translate() {
         String q = ConsoleUtil.readLine("文本: ");
         String lang = ConsoleUtil.readLine("目标语言 (zh/en): ");
-        String prompt = "请将以下文本翻译为" + ("zh".equals(lang) ? "中文" : "英文") + "，只给译文：\n" + q;
-        ConsoleUtil.printLine("译文: " + callChat(prompt));
+        String key = getApiKey();
+        if (key == null || key.isEmpty()) {
+            ConsoleUtil.printLine("译文: ❌ 未配置API密钥，请先配置");
+            return;
+        }
+        try {
+            TranslationMemory.Result r = TranslationMemory.translate(q, lang, p -> CLIENT.chat(key, p, tag(Feature.TRANSLATE)));
+            ConsoleUtil.printLine("译文: " + r.text());
+            printMemoryStats(r);
+        } catch (IOException e) {
+            ConsoleUtil.printLine("译文: 调用失败: " + e.getMessage());
+        }
     }
 
     private static void codeGen() {
-        String lang = ConsoleUtil.readLine("语言 (java/python/go等): ");
+        ConsoleUtil.printLine("模式：1 单次生成  2 项目模式（先规划文件，再并行生成）");
+        String mode = ConsoleUtil.readLine("编号 (默认1): ").trim();
+        String lang = ConsoleUtil.readLine("语言 (java/python/go等): ").trim();
         String desc = ConsoleUtil.readLine("需求描述: ");
-        String prompt = "请用 " + lang + " 实现以下需求，只返回完整代码：\n" + desc;
+        if ("2".equals(mode)) {
+            projectGen(lang, desc);
+        } else {
+            singleShotGen(lang, desc);
+        }
+    }
+
+    /* 单次生成：一次 deepseek-coder 调用，返回耗时（毫秒） */
+    private static long singleShotGen(String lang, String desc) {
+        Prompt prompt = Prompts.code(lang, desc);
 
         ConsoleUtil.printLine("正在生成代码，请稍候...");
-        String raw   = callCode(prompt);          // 调接口
-        String[] arr = CodeExtractor.split(raw);  // 分离
-        String text  = arr[0];
-        String code  = arr[1];
+        long t0 = System.nanoTime();
+        String raw = callCode(prompt, Feature.CODE);                 // 调接口
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        CodeExtractor.Result res = CodeExtractor.extract(raw);       // 分离全部代码块
 
-        if (code != null) {
-            String file = "output/" + FileTool.guessFileName(lang);
+        if (!res.blocks().isEmpty()) {
             try {
-                FileTool.write(file, code);
-                ConsoleUtil.printLine("代码已生成 → " + Paths.get(file).toAbsolutePath());
+                Path dir = ProjectWriter.newRequestDir("output");
+                List<ProjectWriter.Entry> files = ProjectWriter.writeAll(dir, res.blocks(), lang);
+                ConsoleUtil.printLine("代码已生成 → " + dir.toAbsolutePath());
+                files.forEach(f -> ConsoleUtil.printLine("  📄 " + f.file() + "  (" + f.bytes() + " 字节)"));
+                ConsoleUtil.printLine("  📋 " + ProjectWriter.MANIFEST);
             } catch (IOException e) {
                 ConsoleUtil.printLine("写文件失败: " + e.getMessage());
             }
         }
         // 无论有没有代码，都把文字部分弹窗/控制台显示
+        String text = res.blocks().isEmpty() ? raw : res.text();
         if (!text.isEmpty()) {
             ConsoleUtil.printLine("------ 文字说明 ------");
             ConsoleUtil.printLine(text);
         }
+        ConsoleUtil.printLine("⏱ 单次生成耗时: " + ms + " ms");
+        return ms;
+    }
+
+    /* 项目模式：规划 → 按文件并发调用 deepseek-coder → 汇总到 output/<project>/ */
+    private static void projectGen(String lang, String desc) {
+        if (!checkApiKey()) return;
+        int parallelism;
+        try {
+            parallelism = Integer.parseInt(ConfigManager.getConfig(ConfigManager.KEY_CODE_PARALLELISM, "4"));
+        } catch (NumberFormatException e) {
+            parallelism = 4;
+        }
+        ProjectGenerator gen = new ProjectGenerator(CLIENT, getApiKey(), parallelism, tag(Feature.CODE));
+
+        try {
+            ConsoleUtil.printLine("📐 正在规划文件结构...");
+            long t0 = System.nanoTime();
+            ProjectGenerator.Plan plan = gen.plan(lang, desc);
+            long planMs = (System.nanoTime() - t0) / 1_000_000;
+            ConsoleUtil.printLine("项目 " + plan.project() + "，共 " + plan.files().size() + " 个文件（规划耗时 " + planMs + " ms）");
+            plan.files().forEach(f -> ConsoleUtil.printLine("  - " + f.path() + "：" + f.description()));
+
+            ConsoleUtil.printLine("⚙ 正在并行生成（并发 " + parallelism + "）...");
+            ProjectGenerator.Report report = gen.generate(lang, desc, plan, planMs);
+
+            ConsoleUtil.printLine("\n------ 生成报告 ------");
+            for (ProjectGenerator.FileResult f : report.files()) {
+                if (f.error() == null) {
+                    ConsoleUtil.printLine(String.format("  ✅ %-40s %6d ms  %6d 字符", f.path(), f.latencyMs(), f.chars()));
+                } else {
+                    ConsoleUtil.printLine(String.format("  ❌ %-40s 失败: %s", f.path(), f.error()));
+                }
+            }
+            ConsoleUtil.printLine("规划 " + report.planMs() + " ms + 并行生成 " + report.generateMs()
+                    + " ms = 总耗时 " + report.totalMs() + " ms（逐个串行约 " + (report.planMs() + report.serialMs()) + " ms）");
+            ConsoleUtil.printLine("项目已生成 → " + report.dir().toAbsolutePath());
+
+            String cmp = ConsoleUtil.readLine("是否再跑一次单次生成作为对比？(y/n): ").trim();
+            if ("y".equalsIgnoreCase(cmp)) {
+                long single = singleShotGen(lang, desc);
+                ConsoleUtil.printLine("📊 项目模式 " + report.totalMs() + " ms vs 单次生成 " + single + " ms");
+            }
+        } catch (IOException e) {
+            ConsoleUtil.printLine("❌ 项目生成失败: " + e.getMessage());
+        }
     }
 
     private static void summary() {
         String q = ConsoleUtil.readLine("长文本: ");
-        String prompt = "用三句话概括以下内容：\n" + q;
-        ConsoleUtil.printLine("摘要: " + callChat(prompt));
+        ConsoleUtil.printLine("摘要: " + cachedChat(Prompts.summary(q), Feature.SUMMARY, "", q));
     }
 
     private static void thesis() {
@@ -443,15 +640,15 @@ public class Main {
         ConsoleUtil.printLine("正在生成 " + wordCount + " 字的大纲与正文...");
 
         // 根据字数调整大纲和正文的提示词
-        String outlinePrompt = buildOutlinePrompt(topic, wordCount);
-        String outline = callChat(outlinePrompt);
+        Prompt outlinePrompt = Prompts.thesisOutline(topic, wordCount);
+        String outline = callChat(outlinePrompt, Feature.THESIS);
 
-        String bodyPrompt = buildBodyPrompt(outline, wordCount);
-        String body = callChat(bodyPrompt);
+        Prompt bodyPrompt = Prompts.thesisBody(outline, wordCount);
+        String body = callChat(bodyPrompt, Feature.THESIS);
 
         // 清理和预处理Markdown内容
-        outline = preprocessMarkdown(outline);
-        body = preprocessMarkdown(body);
+        outline = Prompts.cleanMarkdown(outline);
+        body = Prompts.cleanMarkdown(body);
 
         String file = "output/" + topic.replaceAll("\\s+", "_") + "_" + wordCount + "字.docx";
 
@@ -465,33 +662,6 @@ public class Main {
         }
     }
 
-    /**
-     * 预处理Markdown文本
-     */
-    private static String preprocessMarkdown(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
-        }
-
-        // 去除可能的多余前缀
-        if (text.startsWith("大纲：")) {
-            text = text.substring(3);
-        }
-        if (text.startsWith("正文：")) {
-            text = text.substring(3);
-        }
-
-        // 去除AI回复的常见前缀
-        text = text.replaceAll("^好的，[^\\n]+\\n", "");
-        text = text.replaceAll("^遵照您的要求[^\\n]+\\n", "");
-        text = text.replaceAll("^以下是根据[^\\n]+\\n", "");
-
-        // 标准化换行符
-        text = text.replaceAll("\r\n", "\n");
-
-        return text.trim();
-    }
-
     private static int getWordCountFromUser() {
         while (true) {
             String wordCountInput = ConsoleUtil.readLine("论文字数 (100-5000，默认800): ").trim();
@@ -515,48 +685,445 @@ public class Main {
         }
     }
 
-    private static String buildOutlinePrompt(String topic, int wordCount) {
-        if (wordCount <= 1000) {
-            return "请为主题《" + topic + "》写一份简洁的三级大纲，用罗马数字编号（适合" + wordCount + "字短文）：";
-        } else if (wordCount <= 3000) {
-            return "请为主题《" + topic + "》写一份详细的三级大纲，用罗马数字编号（适合" + wordCount + "字论文）：";
+    private static void filePipe() {
+        ConsoleUtil.printLine("模式：1 单个文件  2 目录代码补全（增量）  3 监听目录（守护模式）  4 针对文件提问  5 日志增量摘要");
+        String mode = ConsoleUtil.readLine("编号 (默认1): ").trim();
+        if ("2".equals(mode)) {
+            treeCompletion();
+        } else if ("3".equals(mode)) {
+            watchFolder();
+        } else if ("4".equals(mode)) {
+            askFile();
+        } else if ("5".equals(mode)) {
+            tailSummary();
         } else {
-            return "请为主题《" + topic + "》写一份全面的四级大纲，用罗马数字编号（适合" + wordCount + "字长文）：";
+            singleFilePipe();
+        }
+    }
+
+    /* 针对文件提问：本地 BM25 检索出相关段落，只把这些段落和问题发给模型 */
+    private static void askFile() {
+        if (!checkApiKey()) return;
+        String in = ConsoleUtil.readLine("文件路径: ").trim();
+        Path src = Paths.get(in);
+        if (!Files.isRegularFile(src)) {
+            ConsoleUtil.printLine("❌ 文件不存在: " + in);
+            return;
+        }
+        DocumentIndex index;
+        try {
+            ConsoleUtil.printLine("🔍 正在建立索引（文件未变化时直接读取缓存）...");
+            index = DocumentIndex.forFile(src);
+        } catch (IOException | UncheckedIOException e) {
+            ConsoleUtil.printLine("文件操作失败: " + e.getMessage());
+            return;
+        }
+        ConsoleUtil.printLine("共 " + index.size() + " 段，" + index.totalChars() + " 字");
+        while (true) {
+            String q = ConsoleUtil.readLine("\n❓ 问题 (直接回车返回): ").trim();
+            if (q.isEmpty()) return;
+            List<DocumentIndex.Hit> hits = index.search(q, ASK_TOP_K);
+            if (hits.isEmpty()) {
+                ConsoleUtil.printLine("没有找到与问题相关的段落，换个说法试试");
+                continue;
+            }
+            int chars = hits.stream().mapToInt(h -> h.text().length()).sum();
+            ConsoleUtil.printLine("📎 检索到 " + hits.size() + " 段（" + chars + " 字，原文的 "
+                    + String.format("%.1f", 100.0 * chars / Math.max(1, index.totalChars())) + "%）");
+            ConsoleUtil.printLine("🤖 " + callChat(Prompts.askFile(src.getFileName().toString(), hits, q), Feature.FILE_PIPE));
+        }
+    }
+
+    /* 日志增量摘要：记住上次处理到的位置，每次只总结新追加的内容并入滚动摘要 */
+    private static void tailSummary() {
+        if (!checkApiKey()) return;
+        String in = ConsoleUtil.readLine("日志文件路径: ").trim();
+        Path src = Paths.get(in);
+        if (!Files.isRegularFile(src)) {
+            ConsoleUtil.printLine("❌ 文件不存在: " + in);
+            return;
+        }
+        String key = getApiKey();
+        while (true) {
+            try {
+                LogSummarizer.Refresh r = LogSummarizer.refresh(src, p -> CLIENT.chat(key, p, tag(Feature.SUMMARY)));
+                if (r.reset()) ConsoleUtil.printLine("🔄 文件已轮转或被替换，已从头重新总结");
+                if (r.newBytes() == 0) {
+                    ConsoleUtil.printLine("（没有新增的完整行）");
+                } else {
+                    ConsoleUtil.printLine("📥 新增 " + r.newBytes() / 1024 + " KB，" + r.calls() + " 次请求，已处理到第 "
+                            + r.state().offset() + " 字节");
+                }
+                String summary = r.state().summary();
+                ConsoleUtil.printLine("\n📋 摘要（第 " + r.state().refreshes() + " 次更新）：\n"
+                        + (summary.isEmpty() ? "（暂无）" : summary));
+            } catch (IOException | UncheckedIOException e) {
+                ConsoleUtil.printLine("❌ 摘要失败: " + e.getMessage());
+            }
+            String cmd = ConsoleUtil.readLine("\n回车刷新，r 清除记录从头总结，q 返回: ").trim();
+            if ("q".equalsIgnoreCase(cmd)) return;
+            if ("r".equalsIgnoreCase(cmd)) {
+                try {
+                    LogSummarizer.forget(src);
+                } catch (IOException e) {
+                    ConsoleUtil.printLine("❌ 清除失败: " + e.getMessage());
+                }
+            }
         }
     }
 
-    private static String buildBodyPrompt(String outline, int wordCount) {
-        return "根据以下大纲写一篇 " + wordCount + " 字左右的论文正文，要求结构完整、内容充实、逻辑清晰：\n" + outline;
+    /* 监听收件目录，新文件自动处理，回车停止 */
+    private static void watchFolder() {
+        if (!checkApiKey()) return;
+        Path inbox = Paths.get(ConsoleUtil.readLine("收件目录: ").trim());
+        // 默认发件目录放在收件目录旁边，不能放在里面
+        Path inboxAbs = inbox.toAbsolutePath().normalize();
+        Path defaultOut = inboxAbs.getFileName() == null ? inboxAbs.resolve("out")
+                : inboxAbs.resolveSibling(inboxAbs.getFileName() + "-out");
+        String out = ConsoleUtil.readLine("发件目录 (默认 " + defaultOut + "): ").trim();
+        Path outbox = out.isEmpty() ? defaultOut : Paths.get(out);
+        ConsoleUtil.printLine("处理方式：1 摘要 2 翻译 3 代码补全");
+        PipeOperation op = PipeOperation.parse(ConsoleUtil.readLine("编号: "));
+        if (op == null) {
+            ConsoleUtil.printLine("输入无效");
+            return;
+        }
+        int workers = pipeWorkers();
+
+        FolderWatcher watcher;
+        try {
+            watcher = new FolderWatcher(CLIENT, getApiKey(), inbox, outbox, op, workers, tag(Feature.FILE_PIPE));
+        } catch (IllegalArgumentException e) {
+            ConsoleUtil.printLine("❌ " + e.getMessage());
+            return;
+        }
+        try (watcher) {
+            watcher.start();
+            ConsoleUtil.printLine("👀 正在监听 " + inbox.toAbsolutePath() + "（" + op.getLabel() + "，" + workers + " 个工作线程）");
+            ConsoleUtil.readLine("按回车停止监听...\n");
+            ConsoleUtil.printLine("正在等待处理中的文件完成...");
+        } catch (IOException e) {
+            ConsoleUtil.printLine("文件操作失败: " + e.getMessage());
+            return;
+        }
+        ConsoleUtil.printLine("已停止：处理 " + watcher.getProcessed() + "，失败 " + watcher.getFailed()
+                + "，已处理过跳过 " + watcher.getSkipped());
     }
 
-    private static void filePipe() {
+    /* 命令行守护模式：不进入登录和菜单，直到进程被终止 */
+    private static void watchDaemon(String[] args) {
+        if (args.length < 4 || PipeOperation.parse(args[3]) == null) {
+            ConsoleUtil.printLine("用法: --watch <收件目录> <发件目录> <summary|translate|code> [工作线程数]");
+            return;
+        }
+        String key = ConfigManager.getApiKey();
+        if (key == null || key.isEmpty()) {
+            ConsoleUtil.printLine("❌ 未配置API密钥，请设置环境变量 DEEPSEEK_API_KEY");
+            return;
+        }
+        int workers = pipeWorkers();
+        if (args.length > 4) {
+            try {
+                workers = Integer.parseInt(args[4].trim());
+            } catch (NumberFormatException e) {
+                workers = 0;
+            }
+            if (workers <= 0) {
+                ConsoleUtil.printLine("❌ 工作线程数应为正整数: " + args[4]);
+                return;
+            }
+        }
+        FolderWatcher watcher;
+        try {
+            watcher = new FolderWatcher(CLIENT, key, Paths.get(args[1]), Paths.get(args[2]),
+                    PipeOperation.parse(args[3]), workers);
+        } catch (IllegalArgumentException e) {
+            ConsoleUtil.printLine("❌ " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(watcher::close));
+        UsageLedger.start(usageFlushInterval());
+        try {
+            watcher.start();
+            ConsoleUtil.printLine("👀 守护模式已启动，监听 " + Paths.get(args[1]).toAbsolutePath() + "，Ctrl+C 退出");
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            ConsoleUtil.printLine("❌ 启动失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* 多用户服务模式：本地 HTTP 接口，每个请求凭令牌找到自己的会话 */
+    private static void serverMode(String[] args) {
+        ApiServer.Options opt = ApiServer.Options.fromConfig();
+        if (args.length > 1) {
+            try {
+                opt.port = Integer.parseInt(args[1].trim());
+            } catch (NumberFormatException e) {
+                opt.port = -1;
+            }
+            if (opt.port < 0 || opt.port > 65535) {
+                ConsoleUtil.printLine("❌ 端口应为 0-65535 之间的整数: " + args[1]);
+                return;
+            }
+        }
+        DatabaseConfig.initAsync();
+        UsageLedger.start(usageFlushInterval());
+        ApiServer server = new ApiServer(CLIENT, opt);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        try {
+            server.start();
+            ConsoleUtil.printLine("🌐 服务模式已启动: http://" + opt.host + ":" + server.getPort() + "/api/，Ctrl+C 退出");
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            ConsoleUtil.printLine("❌ 启动失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int pipeWorkers() {
+        try {
+            return Integer.parseInt(ConfigManager.getConfig(ConfigManager.KEY_PIPE_WORKERS, "4"));
+        } catch (NumberFormatException e) {
+            return 4;
+        }
+    }
+
+    /* 目录级代码补全：只把内容哈希变化过的文件发给模型 */
+    private static void treeCompletion() {
+        if (!checkApiKey()) return;
+        String in = ConsoleUtil.readLine("源码目录: ").trim();
+        Path root = Paths.get(in);
+        if (!Files.isDirectory(root)) {
+            ConsoleUtil.printLine("❌ 不是目录: " + in);
+            return;
+        }
+        String defOut = "output/completion/" + root.toAbsolutePath().normalize().getFileName();
+        String out = ConsoleUtil.readLine("输出目录 (默认 " + defOut + "): ").trim();
+        Path outDir = Paths.get(out.isEmpty() ? defOut : out);
+
+        int parallelism;
+        try {
+            parallelism = Integer.parseInt(ConfigManager.getConfig(ConfigManager.KEY_CODE_PARALLELISM, "4"));
+        } catch (NumberFormatException e) {
+            parallelism = 4;
+        }
+        try {
+            ConsoleUtil.printLine("🔍 正在扫描并比对哈希...");
+            TreeCompleter.Report r = new TreeCompleter(CLIENT, getApiKey(), parallelism, tag(Feature.FILE_PIPE)).run(root, outDir);
+            ConsoleUtil.printLine("共 " + r.total() + " 个源文件：补全 " + r.changed() + "，未变更跳过 " + r.skipped()
+                    + "，失败 " + r.failed() + "，已删除 " + r.removed() + "（耗时 " + r.elapsedMs() + " ms）");
+            ConsoleUtil.printLine("结果目录: " + outDir.toAbsolutePath());
+        } catch (IOException e) {
+            ConsoleUtil.printLine("文件操作失败: " + e.getMessage());
+        }
+    }
+
+    private static void singleFilePipe() {
         String in = ConsoleUtil.readLine("输入文件路径: ");
         try {
-            String content = FileTool.read(in);
+            Path src = Paths.get(in);
+            if (!Files.exists(src)) throw new NoSuchFileException(in);
             ConsoleUtil.printLine("处理方式：1 摘要 2 翻译 3 代码补全");
-            String opt = ConsoleUtil.readLine("编号: ");
-            String prompt = switch (opt) {
-                case "1" -> "请摘要：\n" + content;
-                case "2" -> "请翻译为英文：\n" + content;
-                case "3" -> "请补全代码：\n" + content;
-                default -> content;
-            };
-            String result = opt.equals("3") ? callCode(prompt) : callChat(prompt);
+            PipeOperation op = PipeOperation.parse(ConsoleUtil.readLine("编号: "));
+            if (!checkApiKey()) return;
+
+            // 翻译走翻译记忆（本身按块流式读入），只发送没翻译过的片段
+            if (op == PipeOperation.TRANSLATE) {
+                translateFile(src);
+                return;
+            }
+
+            // 大文件（如日志）按块流式处理，避免整文件读入内存
+            if (op != PipeOperation.CODE && Files.size(src) > streamThreshold()) {
+                streamFilePipe(src, op);
+                return;
+            }
+
+            String content = FileTool.read(in);
+            Prompt prompt = op == null ? new Prompt(null, content) : op.prompt(content);
+            // 调用失败直接报错，不把错误信息当成结果写进输出文件
+            String result;
+            try {
+                result = op == PipeOperation.CODE ? CLIENT.code(getApiKey(), prompt, tag(Feature.FILE_PIPE))
+                        : CLIENT.chat(getApiKey(), prompt, tag(Feature.FILE_PIPE));
+            } catch (IOException e) {
+                ConsoleUtil.printLine("❌ 调用失败，未写入输出: " + e.getMessage());
+                return;
+            }
             String out = ConsoleUtil.readLine("输出目标文件路径(建议填写为“你想要的文件名.md”): ");
             FileTool.write(out, result);
             ConsoleUtil.printLine("处理完成，已写入: " + Paths.get(out).toAbsolutePath());
-        } catch (IOException e) {
+        } catch (IOException | java.io.UncheckedIOException e) {
             ConsoleUtil.printLine("文件操作失败: " + e.getMessage());
         }
     }
 
+    /* 文件翻译走翻译记忆：按块流式读入，只有没翻译过的片段发给模型 */
+    private static void translateFile(Path src) throws IOException {
+        if (!checkApiKey()) return;
+        String key = getApiKey();
+        String out = ConsoleUtil.readLine("输出目标文件路径(建议填写为“你想要的文件名.md”): ");
+        Charset cs = FileTool.detectCharset(src);
+        TranslationMemory.Result r;
+        try (Stream<String> chunks = FileTool.chunks(src, cs, 0, FileTool.DEFAULT_CHUNK_CHARS);
+             Writer w = FileTool.openWriter(Paths.get(out), false)) {
+            r = TranslationMemory.translateStream(chunks.iterator(), "en",
+                    p -> CLIENT.chat(key, p, tag(Feature.FILE_PIPE)), w);
+        }
+        ConsoleUtil.printLine("处理完成，已写入: " + Paths.get(out).toAbsolutePath());
+        printMemoryStats(r);
+    }
+
+    private static void printMemoryStats(TranslationMemory.Result r) {
+        ConsoleUtil.printLine("♻️ 共 " + r.segments() + " 个片段，翻译记忆命中 " + r.hits() + "，新翻译 "
+                + (r.segments() - r.hits()) + "（" + r.batches() + " 次请求）");
+    }
+
+    /* 分块读 → 逐块处理 → 逐块追加写出，内存占用与文件大小无关 */
+    private static void streamFilePipe(Path src, PipeOperation op) throws IOException {
+        Charset cs = FileTool.detectCharset(src);
+        long size = Files.size(src);
+        ConsoleUtil.printLine("📦 大文件 " + size / 1024 + " KB（编码 " + cs.name() + "），按块流式处理");
+        String out = ConsoleUtil.readLine("输出目标文件路径(建议填写为“你想要的文件名.md”): ");
+        String key = getApiKey();
+
+        int n = 0;
+        try (Stream<String> chunks = FileTool.chunks(src, cs, 0, FileTool.DEFAULT_CHUNK_CHARS);
+             Writer w = FileTool.openWriter(Paths.get(out), false)) {
+            Iterator<String> it = chunks.iterator();
+            while (it.hasNext()) {
+                String chunk = it.next();
+                Prompt prompt = op == null ? new Prompt(null, chunk) : op.prompt(chunk);
+                String result;
+                try {
+                    result = CLIENT.chat(key, prompt, tag(Feature.FILE_PIPE));
+                } catch (IOException e) {
+                    // 中途有一块失败：输出不完整，删掉它，免得半截结果被当成处理成功
+                    w.close();
+                    Files.deleteIfExists(Paths.get(out));
+                    if (n > 0) System.err.println();
+                    ConsoleUtil.printLine("❌ 第 " + (n + 1) + " 块调用失败，已中止并删除不完整的输出: " + e.getMessage());
+                    return;
+                }
+                w.write(result);
+                w.write("\n\n");
+                w.flush();
+                // 进度写到 stderr：stdout 被重定向或接入管道时不混进输出
+                System.err.print("\r已处理 " + (++n) + " 块");
+            }
+        }
+        if (n > 0) System.err.println();
+        ConsoleUtil.printLine("处理完成（共 " + n + " 块），已写入: " + Paths.get(out).toAbsolutePath());
+    }
+
+    /* 启动指标定时落盘，退出时再写一次；metrics.dump_interval 为 0 表示只在退出时写 */
+    private static void startMetrics() {
+        long interval;
+        try {
+            interval = Long.parseLong(ConfigManager.getConfig(ConfigManager.KEY_METRICS_INTERVAL, "60"));
+        } catch (NumberFormatException e) {
+            interval = 60;
+        }
+        MetricsReporter.startPeriodicDump(METRICS_DIR, interval);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> MetricsReporter.stop(METRICS_DIR), "metrics-final-dump"));
+    }
+
+    /* 后台加载失败（文件不存在等）按空历史处理 */
+    private static void awaitHistoryLoad() {
+        try {
+            historyLoad.join();
+        } catch (CompletionException e) {
+            ConsoleUtil.printLine("未找到历史，开始新会话");
+        }
+    }
+
+    /* 启动阶段后台任务用守护线程，退出时不必等它们 */
+    private static void background(Runnable r) {
+        Thread t = new Thread(r, "startup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* 记录一个启动阶段：距进程启动的耗时 */
+    private static void phase(String name, long startNanos) {
+        Metrics.histogram("startup_phase_us", "phase", name).recordSince(startNanos);
+        STARTUP_MS.put(name, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    private static String startupSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (STARTUP_MS) {
+            STARTUP_MS.forEach((k, v) -> sb.append(sb.length() == 0 ? "" : "，").append(k).append(' ').append(v).append(" ms"));
+        }
+        if (!historyLoad.isDone()) sb.append("，历史仍在后台加载");
+        return sb.toString();
+    }
+
+    /* token 用量归属：当前用户 + 功能 */
+    private static UsageTag tag(Feature feature) {
+        return UsageTag.of(feature, currentUser != null ? currentUser.getId() : null);
+    }
+
+    private static UsageTag chatTag(ConversationMeta meta) {
+        return new UsageTag(Feature.CHAT, meta.getUserId(), meta.getId());
+    }
+
+    private static long usageFlushInterval() {
+        try {
+            return Long.parseLong(ConfigManager.getConfig(ConfigManager.KEY_USAGE_FLUSH_INTERVAL, "30"));
+        } catch (NumberFormatException e) {
+            return 30;
+        }
+    }
+
+    /* token 用量报表：先把内存里的增量落库，再按功能 / 对话汇总 */
+    private static void showUsage() {
+        UsageReport report = new UsageReport();
+        Integer userId = currentUser != null ? currentUser.getId() : null;
+        ConsoleUtil.printLine("\n💰 token 用量（单价：输入 " + report.getInputPrice() + " 元 / 输出 "
+                + report.getOutputPrice() + " 元，每百万 token）\n");
+        try {
+            UsageLedger.flush();
+            ConsoleUtil.printLine("—— 我的用量（按功能）——");
+            ConsoleUtil.printLine(report.render(report.byFeature(userId)));
+            ConsoleUtil.printLine("—— 用量最多的对话 ——");
+            ConsoleUtil.printLine(report.render(report.topConversations(userId, 10)));
+            ConsoleUtil.printLine("—— 全部用户（按功能）——");
+            ConsoleUtil.printLine(report.render(report.byFeature(null)));
+        } catch (SQLException e) {
+            ConsoleUtil.printLine("❌ 读取用量表失败: " + e.getMessage() + "，以下为本次运行尚未落库的用量");
+            ConsoleUtil.printLine(report.render(report.pendingByFeature(userId)));
+        }
+        ConsoleUtil.printLine("—— 上下文缓存命中（本次运行）——");
+        ConsoleUtil.printLine(report.renderCacheHits());
+        pause();
+    }
+
+    private static void showStats() {
+        ConsoleUtil.printLine("\n📈 运行指标（耗时单位 ms）\n");
+        ConsoleUtil.printLine(MetricsReporter.renderTable());
+        ConsoleUtil.printLine("定时导出目录: " + METRICS_DIR.toAbsolutePath());
+        pause();
+    }
+
+    private static long streamThreshold() {
+        try {
+            return Long.parseLong(ConfigManager.getConfig(ConfigManager.KEY_STREAM_THRESHOLD, "262144"));
+        } catch (NumberFormatException e) {
+            return 262144;
+        }
+    }
+
     private static void showHistory() throws IOException {
         ConsoleUtil.printLine("\n====== 查看历史 ======");
         ConversationMeta selected = HistorySelector.select(currentUser.getId());
         if (selected == null) return;
         // 只读方式展示
         try {
-            List<Message> msgs = ConversationStore.loadMsg(selected.getId(), currentUser.getId());
+            List<Message> msgs = ConversationStore.loadConversation(selected);
             msgs.forEach(m -> ConsoleUtil.printLine(
                     (m.getRole().equals("user") ? "【你】" : "【AI】") + m.getContent()));
         } catch (IOException e) {
@@ -566,6 +1133,7 @@ public class Main {
 
     private static void clearHistory() {
         try {
+            awaitHistoryLoad();
             CONV.clear();
             ConsoleUtil.printLine("已清空历史");
         } catch (IOException e) {
@@ -573,25 +1141,45 @@ public class Main {
         }
     }
 
-    private static String callChat(String prompt) {
+    private static String callChat(Prompt prompt, Feature feature) {
+        String key = getApiKey();
+        if (key == null || key.isEmpty()) {
+            return "❌ 未配置API密钥，请先配置";
+        }
+        try {
+            return CLIENT.chat(key, prompt, tag(feature));
+        } catch (IOException e) {
+            return "调用失败: " + e.getMessage();
+        }
+    }
+
+    /* 先查近重复缓存，未命中再调用；只缓存成功的结果。scope 为正文以外影响结果的参数 */
+    private static String cachedChat(Prompt prompt, Feature feature, String scope, String text) {
+        String cached = AnswerCache.get(feature, scope, text);
+        if (cached != null) {
+            ConsoleUtil.printLine("♻️ 与之前的请求内容相同或近似，直接复用结果");
+            return cached;
+        }
         String key = getApiKey();
         if (key == null || key.isEmpty()) {
             return "❌ 未配置API密钥，请先配置";
         }
         try {
-            return CLIENT.chat(key, prompt);
+            String result = CLIENT.chat(key, prompt, tag(feature));
+            AnswerCache.put(feature, scope, text, result);
+            return result;
         } catch (IOException e) {
             return "调用失败: " + e.getMessage();
         }
     }
 
-    private static String callCode(String prompt) {
+    private static String callCode(Prompt prompt, Feature feature) {
         String key = getApiKey();
         if (key == null || key.isEmpty()) {
             return "❌ 未配置API密钥，请先配置";
         }
         try {
-            return CLIENT.code(key, prompt);
+            return CLIENT.code(key, prompt, tag(feature));
         } catch (IOException e) {
             return "调用失败: " + e.getMessage();
         }
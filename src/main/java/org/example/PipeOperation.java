@@ -0,0 +1,57 @@
+package org.example;
+
+/**
+ * 文件管道支持的处理方式
+ */
+public enum PipeOperation {
+    SUMMARY("1", "摘要", "你是摘要助手。请摘要用户提供的内容，保留关键事实、数字和结论。", false, "summary.md"),
+    TRANSLATE("2", "翻译", "你是专业翻译。请把用户提供的内容翻译为英文，保留原有格式，只输出译文。", false, "en.md"),
+    CODE("3", "代码补全", "你是资深程序员。请补全用户提供的代码，只返回补全后的完整代码。", true, null);
+
+    private final String code;
+    private final String label;
+    private final String instruction;
+    private final boolean useCoder;
+    private final String suffix;
+
+    PipeOperation(String code, String label, String instruction, boolean useCoder, String suffix) {
+        this.code = code;
+        this.label = label;
+        this.instruction = instruction;
+        this.useCoder = useCoder;
+        this.suffix = suffix;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getInstruction() {
+        return instruction;
+    }
+
+    /* 是否走 deepseek-coder */
+    public boolean isUseCoder() {
+        return useCoder;
+    }
+
+    /* 指令作为固定的 system 前缀，文件内容放在 user 消息，逐块处理时每块都能命中前缀缓存 */
+    public Prompt prompt(String content) {
+        return new Prompt(instruction, content);
+    }
+
+    /* 结果文件名：代码补全保留原名，其余追加后缀，如 a.txt → a.txt.summary.md */
+    public String outputName(String inputName) {
+        return suffix == null ? inputName : inputName + "." + suffix;
+    }
+
+    /* 按菜单编号或英文名解析，如 "1" / "summary"，无法识别返回 null */
+    public static PipeOperation parse(String s) {
+        if (s == null) return null;
+        String t = s.trim();
+        for (PipeOperation op : values()) {
+            if (op.code.equals(t) || op.name().equalsIgnoreCase(t)) return op;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.CodeExtractor.CodeBlock;
+import org.example.usage.UsageTag;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * 项目级代码生成：先让模型给出文件规划，再以规划为共享上下文并发生成每个文件
+ */
+public class ProjectGenerator {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final DeepSeekClient client;
+    private final String key;
+    private final int parallelism;
+    private final UsageTag tag;
+
+    /** 规划中的一个文件 */
+    public record PlannedFile(String path, String description) {
+    }
+
+    /** 文件规划 */
+    public record Plan(String project, List<PlannedFile> files) {
+    }
+
+    /** 单个文件的生成结果；chars 是代码的字符数，error 非 null 表示该文件失败 */
+    public record FileResult(String path, long latencyMs, int chars, String error) {
+    }
+
+    /** 整体报告 */
+    public record Report(Path dir, long planMs, long generateMs, long totalMs, List<FileResult> files) {
+        /** 各文件耗时之和，即串行逐个生成的大致耗时 */
+        public long serialMs() {
+            return files.stream().mapToLong(FileResult::latencyMs).filter(ms -> ms > 0).sum();
+        }
+    }
+
+    private record Generated(CodeBlock block, long latencyMs) {
+    }
+
+    public ProjectGenerator(DeepSeekClient client, String key, int parallelism, UsageTag tag) {
+        this.client = client;
+        this.key = key;
+        this.parallelism = Math.max(1, parallelism);
+        this.tag = tag;
+    }
+
+    /* 第一步：请求文件规划（JSON） */
+    public Plan plan(String lang, String desc) throws IOException {
+        String prompt = "你是软件架构师。请为以下需求设计一个 " + lang + " 项目的文件结构，"
+                + "只返回 JSON，不要其它文字，格式："
+                + "{\"project\":\"英文项目名\",\"files\":[{\"path\":\"相对路径\",\"description\":\"该文件职责、对外接口\"}]}\n"
+                + "需求：" + desc;
+        String raw = client.code(key, prompt, tag);
+        CodeExtractor.Result r = CodeExtractor.extract(raw);
+        String json = r.blocks().isEmpty() ? raw : r.blocks().get(0).code();
+        int s = json.indexOf('{');
+        int e = json.lastIndexOf('}');
+        if (s < 0 || e <= s) throw new IOException("文件规划不是合法 JSON");
+
+        JsonNode root = MAPPER.readTree(json.substring(s, e + 1));
+        String project = sanitizeProject(root.path("project").asText("project"));
+        List<PlannedFile> files = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (JsonNode f : root.path("files")) {
+            String given = f.path("path").asText("").trim();
+            if (given.isEmpty()) continue;
+            // 在这里就把越界路径剔掉，免得各文件都生成完（已付费）才在写盘时失败
+            String path = ProjectWriter.safeRelativePath(given);
+            if (path == null) {
+                System.err.println("⚠️ 跳过非法文件路径: " + given);
+                continue;
+            }
+            if (seen.add(path)) files.add(new PlannedFile(path, f.path("description").asText("")));
+        }
+        if (files.isEmpty()) throw new IOException("文件规划为空");
+        return new Plan(project, files);
+    }
+
+    /* 第二步：按规划并发生成各文件，写入 output/<project>/<时间戳>/，不与上一次生成的文件混在一起 */
+    public Report generate(String lang, String desc, Plan plan, long planMs) throws IOException {
+        String context = planContext(lang, desc, plan);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, plan.files().size()), r -> {
+            Thread t = new Thread(r, "project-gen");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long start = System.nanoTime();
+        List<Future<Generated>> futures = new ArrayList<>();
+        try {
+            for (PlannedFile f : plan.files()) {
+                futures.add(pool.submit(() -> generateOne(lang, context, f)));
+            }
+
+            List<CodeBlock> blocks = new ArrayList<>();
+            List<FileResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                PlannedFile f = plan.files().get(i);
+                try {
+                    Generated g = futures.get(i).get();
+                    blocks.add(g.block());
+                    results.add(new FileResult(f.path(), g.latencyMs(), g.block().code().length(), null));
+                } catch (ExecutionException e) {
+                    results.add(new FileResult(f.path(), -1, 0, e.getCause().getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("生成被中断", e);
+                }
+            }
+            long generateMs = (System.nanoTime() - start) / 1_000_000;
+
+            Path dir = ProjectWriter.newRequestDir(Paths.get("output", plan.project()).toString());
+            ProjectWriter.writeAll(dir, blocks, lang);
+            return new Report(dir, planMs, generateMs, planMs + generateMs, results);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Generated generateOne(String lang, String context, PlannedFile f) throws IOException {
+        String prompt = context + "\n现在只生成文件 " + f.path() + " 的完整代码，放在一个代码块中，不要解释。";
+        long t0 = System.nanoTime();
+        String raw = client.code(key, prompt, tag);
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+
+        CodeExtractor.Result r = CodeExtractor.extract(raw);
+        String code = r.blocks().isEmpty() ? raw : r.blocks().get(0).code();
+        String blockLang = r.blocks().isEmpty() ? lang : r.blocks().get(0).lang();
+        // 以规划中的路径为准，忽略模型在代码块里给的文件名
+        return new Generated(new CodeBlock(blockLang, f.path(), code), ms);
+    }
+
+    /* 所有文件共用的上下文：需求 + 完整规划，保证各文件之间接口一致 */
+    private static String planContext(String lang, String desc, Plan plan) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("我们正在用 ").append(lang).append(" 实现项目 ").append(plan.project()).append("。\n");
+        sb.append("需求：").append(desc).append("\n文件规划：\n");
+        for (PlannedFile f : plan.files()) {
+            sb.append("- ").append(f.path()).append("：").append(f.description()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String sanitizeProject(String name) {
+        String s = name.trim().replaceAll("[^\\w\\-]+", "_");
+        return s.isEmpty() ? "project" : s;
+    }
+}
@@ -0,0 +1,135 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.example.CodeExtractor.CodeBlock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 把提取出的多个代码块并行写入一次请求独立的输出目录，并生成 manifest.json
+ */
+public class ProjectWriter {
+
+    public static final String MANIFEST = "manifest.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final DateTimeFormatter DIR_FMT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    // 写文件是纯 IO，线程数不必太多；守护线程，不阻止程序退出
+    private static final ExecutorService IO_POOL = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread t = new Thread(r, "project-writer");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /** manifest 中的一条记录 */
+    public record Entry(String file, String lang, long bytes) {
+    }
+
+    /** 整个 manifest */
+    public record Manifest(String dir, long createTime, List<Entry> files) {
+    }
+
+    /* 为一次请求新建目录：base/20250101-120000-ab12cd，避免覆盖上一次的结果 */
+    public static Path newRequestDir(String base) throws IOException {
+        String name = LocalDateTime.now().format(DIR_FMT) + "-" + UUID.randomUUID().toString().substring(0, 6);
+        Path dir = Paths.get(base, name);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    /**
+     * 并行写出全部代码块，返回写入清单（同时落盘为 dir/manifest.json）
+     * 文件名优先用代码块自带的提示，其次按语言猜测，重名时追加 _2、_3…
+     */
+    public static List<Entry> writeAll(Path dir, List<CodeBlock> blocks, String defaultLang) throws IOException {
+        Files.createDirectories(dir);
+        Set<String> used = new HashSet<>();
+        used.add(MANIFEST);
+        List<String> names = new ArrayList<>();
+        List<String> langs = new ArrayList<>();
+        for (CodeBlock b : blocks) {
+            String lang = b.lang() != null ? b.lang() : defaultLang;
+            String safe = b.fileName() != null ? safeRelativePath(b.fileName()) : null;
+            String name = safe != null ? safe : FileTool.guessFileName(lang);
+            names.add(unique(name, used));
+            langs.add(lang);
+        }
+
+        List<CompletableFuture<Entry>> futures = new ArrayList<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            String name = names.get(i);
+            String lang = langs.get(i);
+            byte[] data = blocks.get(i).code().getBytes(StandardCharsets.UTF_8);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    Path p = dir.resolve(name).normalize();
+                    if (!p.startsWith(dir.normalize())) throw new IOException("非法文件路径: " + name);
+                    Files.createDirectories(p.getParent());
+                    Files.write(p, data);
+                    return new Entry(name, lang, data.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, IO_POOL));
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        try {
+            for (CompletableFuture<Entry> f : futures) entries.add(f.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) throw u.getCause();
+            throw e;
+        }
+
+        writeManifest(dir, entries);
+        return entries;
+    }
+
+    /**
+     * 把模型给出的文件路径规范成输出目录内的相对路径：统一用 /，去掉 ./ 和多余分隔符；
+     * 绝对路径、盘符路径、跳出目录的 ../ 以及空路径返回 null
+     */
+    public static String safeRelativePath(String path) {
+        if (path == null) return null;
+        String s = path.trim().replace('\\', '/');
+        if (s.isEmpty() || s.startsWith("/") || s.matches("^[A-Za-z]:.*") || s.indexOf('\0') >= 0) return null;
+        Path p;
+        try {
+            p = Paths.get(s).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        String n = p.toString().replace('\\', '/');
+        if (n.isEmpty() || n.equals("..") || n.startsWith("../") || p.isAbsolute()) return null;
+        return n;
+    }
+
+    public static void writeManifest(Path dir, List<Entry> entries) throws IOException {
+        Manifest m = new Manifest(dir.toString(), System.currentTimeMillis(), entries);
+        MAPPER.writeValue(dir.resolve(MANIFEST).toFile(), m);
+    }
+
+    private static String unique(String name, Set<String> used) {
+        if (used.add(name)) return name;
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; ; i++) {
+            String candidate = stem + "_" + i + ext;
+            if (used.add(candidate)) return candidate;
+        }
+    }
+}
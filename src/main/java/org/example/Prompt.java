@@ -0,0 +1,17 @@
+package org.example;
+
+import org.example.model.Message;
+
+import java.util.List;
+
+/**
+ * 一次调用的提示词：固定的 system 指令在前，可变内容（用户文本、参数）一律放在最后的 user 消息里
+ * 同一功能的请求前缀逐字相同，才能命中服务端的上下文缓存（命中部分计费更低、首字更快）
+ */
+public record Prompt(String system, String user) {
+
+    public List<Message> messages() {
+        if (system == null || system.isEmpty()) return List.of(new Message("user", user));
+        return List.of(new Message("system", system), new Message("user", user));
+    }
+}
@@ -0,0 +1,12 @@
+package org.example;
+
+import java.io.IOException;
+
+/**
+ * 调用模型的方式，由调用方决定密钥、用量归属和并发控制
+ * 如 p -> client.chat(key, p, tag)
+ */
+@FunctionalInterface
+public interface PromptCall {
+    String call(Prompt prompt) throws IOException;
+}
@@ -0,0 +1,140 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * 各功能的提示词，控制台和 HTTP 服务共用，保证两边发给模型的内容一致
+ * 布局固定为：system 指令（每个功能一个常量）+ user 消息（参数在前、正文在后），见 {@link Prompt}
+ */
+public final class Prompts {
+
+    private Prompts() {
+    }
+
+    /*
+     * 各功能固定的 system 指令：不拼接任何变量，改动会让已缓存的前缀全部失效，修改时集中在这里
+     */
+    public static final String CHAT_SYSTEM = "你是一个知识渊博、表达简洁的中文助手。回答准确，必要时给出示例，不确定时直接说明。";
+
+    static final String TRANSLATE_SYSTEM = "你是专业翻译。把用户消息中“原文：”之后的全部内容翻译为“目标语言”指定的语言，"
+            + "保留原有的段落、列表、代码块和 Markdown 格式，专有名词保持一致，只输出译文，不要解释。";
+
+    static final String SEGMENTS_SYSTEM = "你是专业翻译。用户消息第一行是目标语言，之后每行是一个以 [[编号]] 开头的待译片段。"
+            + "逐条翻译，每条输出一行并以相同的 [[编号]] 开头，条数与输入一致，不合并、不拆分、不遗漏，只输出译文，不要解释。";
+
+    static final String LOG_CHUNK_SYSTEM = "你是运维助手。概括用户给出的一段服务日志：主要事件、错误和告警（注明次数和首末时间）、异常趋势，"
+            + "条目化列出，不超过 10 条，不要逐行复述。";
+
+    static final String LOG_MERGE_SYSTEM = "你在维护一份持续更新的日志摘要。用户给出现有摘要和新增内容（原始日志或其分段摘要），"
+            + "输出合并后的完整摘要：保留仍然重要的历史事件，更新次数和时间范围，新出现的问题放在最前面，不超过 20 条，只输出摘要。";
+
+    static final String SUMMARY_SYSTEM = "你是摘要助手。用三句话概括用户提供的内容，覆盖主题、关键事实和结论，不要添加原文没有的信息。";
+
+    // 多文件时要求在围栏后注明路径，便于 CodeExtractor 拆分
+    static final String CODE_SYSTEM = "你是资深程序员。按用户给出的语言和需求实现代码，只返回完整代码；"
+            + "如需多个文件，每个文件单独一个代码块，并在围栏后注明文件路径（如 ```java src/Main.java）。";
+
+    static final String COMPLETE_SYSTEM = "你是资深程序员。补全用户给出的源文件，保持原有结构和风格，只返回补全后的完整代码，放在一个代码块中。";
+
+    static final String OUTLINE_SYSTEM = "你是学术写作助手。为用户给出的主题写论文大纲，用罗马数字编号，层级和详略按用户给出的篇幅和层级要求，只输出大纲。";
+
+    static final String BODY_SYSTEM = "你是学术写作助手。根据用户给出的大纲写论文正文，要求结构完整、内容充实、逻辑清晰，篇幅按用户要求，只输出正文。";
+
+    static final String ASK_FILE_SYSTEM = "你是文档问答助手。用户消息中给出从一份文档里检索到的若干片段（[n] 为片段在文档中的序号）和一个问题。"
+            + "只根据这些片段回答，引用时注明片段序号；片段不足以回答时直接说明缺少哪些信息，不要编造。";
+
+    /* lang 为 zh 时译成中文，否则译成英文 */
+    public static Prompt translate(String text, String lang) {
+        return new Prompt(TRANSLATE_SYSTEM, "目标语言：" + ("zh".equals(lang) ? "中文" : "英文") + "\n原文：\n" + text);
+    }
+
+    /* 翻译记忆的批量请求：每个片段一行，带编号便于按序取回 */
+    public static Prompt translateSegments(List<String> segments, String lang) {
+        StringBuilder sb = new StringBuilder("目标语言：").append("zh".equals(lang) ? "中文" : "英文");
+        for (int i = 0; i < segments.size(); i++) {
+            sb.append("\n[[").append(i + 1).append("]] ").append(segments.get(i));
+        }
+        return new Prompt(SEGMENTS_SYSTEM, sb.toString());
+    }
+
+    /* 增量日志摘要：一段新增日志的分段摘要 */
+    public static Prompt logChunk(String chunk) {
+        return new Prompt(LOG_CHUNK_SYSTEM, chunk);
+    }
+
+    /* 增量日志摘要：把新增内容并入现有摘要 */
+    public static Prompt logMerge(String summary, String delta) {
+        return new Prompt(LOG_MERGE_SYSTEM, "现有摘要：\n" + (summary == null || summary.isEmpty() ? "（无）" : summary)
+                + "\n\n新增内容：\n" + delta);
+    }
+
+    public static Prompt summary(String text) {
+        return new Prompt(SUMMARY_SYSTEM, text);
+    }
+
+    public static Prompt code(String lang, String desc) {
+        return new Prompt(CODE_SYSTEM, "语言：" + lang + "\n需求：\n" + desc);
+    }
+
+    /* 单文件补全：路径放在内容前一行，不进入固定前缀 */
+    public static Prompt complete(String path, String content) {
+        return new Prompt(COMPLETE_SYSTEM, "文件：" + path + "\n" + content);
+    }
+
+    /* 文件问答：检索到的片段在前，问题放在最后 */
+    public static Prompt askFile(String fileName, List<DocumentIndex.Hit> hits, String question) {
+        StringBuilder sb = new StringBuilder("文档：").append(fileName).append("\n片段：\n");
+        for (DocumentIndex.Hit h : hits) {
+            sb.append('[').append(h.index() + 1).append("] ").append(h.text()).append("\n\n");
+        }
+        return new Prompt(ASK_FILE_SYSTEM, sb.append("问题：").append(question).toString());
+    }
+
+    public static Prompt thesisOutline(String topic, int wordCount) {
+        String level;
+        if (wordCount <= 1000) {
+            level = "简洁的三级大纲（短文）";
+        } else if (wordCount <= 3000) {
+            level = "详细的三级大纲（论文）";
+        } else {
+            level = "全面的四级大纲（长文）";
+        }
+        return new Prompt(OUTLINE_SYSTEM, "篇幅：" + wordCount + " 字\n层级：" + level + "\n主题：《" + topic + "》");
+    }
+
+    public static Prompt thesisBody(String outline, int wordCount) {
+        return new Prompt(BODY_SYSTEM, "篇幅：" + wordCount + " 字左右\n大纲：\n" + outline);
+    }
+
+    /**
+     * 预处理模型返回的 Markdown：去掉“好的，……”之类的客套前缀，统一换行符
+     */
+    public static String cleanMarkdown(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+
+        // 去除可能的多余前缀
+        if (text.startsWith("大纲：")) {
+            text = text.substring(3);
+        }
+        if (text.startsWith("正文：")) {
+            text = text.substring(3);
+        }
+
+        // 去除AI回复的常见前缀
+        text = text.replaceAll("^好的，[^\\n]+\\n", "");
+        text = text.replaceAll("^遵照您的要求[^\\n]+\\n", "");
+        text = text.replaceAll("^以下是根据[^\\n]+\\n", "");
+
+        // 标准化换行符
+        text = text.replaceAll("\r\n", "\n");
+
+        return text.trim();
+    }
+
+    /* 对话标题：取第一句话前 20 字 */
+    public static String title(String first) {
+        return first.length() > 20 ? first.substring(0, 20) + "…" : first;
+    }
+}
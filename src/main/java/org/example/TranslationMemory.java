@@ -0,0 +1,251 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 翻译记忆：按行、长行再按句切成片段，以 目标语言 + 规范化原文 为键记住译文
+ * 再次翻译时只把没见过的片段成批发给模型，结果按原顺序拼回，空白、空行和代码块原样保留
+ *
+ * 记忆按语言存在配置目录 tm/<语言>.jsonl，每行一条，只追加；删除文件即清空
+ */
+public final class TranslationMemory {
+
+    /** 超过该长度的行按句切开 */
+    private static final int MAX_SEGMENT = 300;
+    /** 每批请求的片段数和字符数上限 */
+    private static final int BATCH_SEGMENTS = 40;
+    private static final int BATCH_CHARS = 2000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[。！？!?；;])|(?<=\\.)(?=\\s)");
+    private static final Pattern MARKUP = Pattern.compile("\\s*(?:(?:#{1,6}|[-*+>]|\\d{1,3}[.)])\\s+)*");
+    private static final Pattern NUMBERED = Pattern.compile("^\\s*\\[\\[(\\d+)]]\\s?(.*)$");
+    private static final Map<String, Map<String, String>> MEMORY = new ConcurrentHashMap<>();
+
+    /** 一次翻译的结果和统计 */
+    public record Result(String text, int segments, int hits, int batches) {
+    }
+
+    /** 切分后的一段：translatable 为 false 的部分（空白、代码、纯符号）原样输出 */
+    record Piece(String text, boolean translatable) {
+    }
+
+    private TranslationMemory() {
+    }
+
+    /* lang：zh 译成中文，其他一律译成英文（与 Prompts.translate 一致） */
+    public static Result translate(String text, String lang, PromptCall upstream) throws IOException {
+        String target = "zh".equals(lang) ? "zh" : "en";
+        Map<String, String> mem = memory(target);
+        List<Piece> pieces = segment(text);
+
+        // 1. 查记忆，收集没见过的片段（同一原文只发一次）
+        LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+        int segments = 0;
+        int hits = 0;
+        for (Piece p : pieces) {
+            if (!p.translatable()) continue;
+            segments++;
+            String key = normalize(p.text());
+            if (mem.containsKey(key)) hits++;
+            else pending.putIfAbsent(key, p.text());
+        }
+        Metrics.counter("tm_segments_total", "result", "hit").add(hits);
+        Metrics.counter("tm_segments_total", "result", "miss").add(segments - hits);
+
+        // 2. 成批翻译新片段并写入记忆
+        int batches = 0;
+        List<String> keys = new ArrayList<>(pending.keySet());
+        int from = 0;
+        while (from < keys.size()) {
+            int to = from;
+            int chars = 0;
+            while (to < keys.size() && to - from < BATCH_SEGMENTS
+                    && (to == from || chars + pending.get(keys.get(to)).length() <= BATCH_CHARS)) {
+                chars += pending.get(keys.get(to)).length();
+                to++;
+            }
+            List<String> batchKeys = keys.subList(from, to);
+            List<String> sources = batchKeys.stream().map(pending::get).toList();
+            List<String> out = translateBatch(sources, target, upstream);
+            batches++;
+            remember(target, batchKeys, out);
+            from = to;
+        }
+        Metrics.counter("tm_batches_total").add(batches);
+
+        // 3. 按原顺序拼回
+        StringBuilder sb = new StringBuilder(text.length() + text.length() / 2);
+        boolean lastTranslated = false;
+        for (Piece p : pieces) {
+            if (!p.translatable()) {
+                sb.append(p.text());
+                lastTranslated = false;
+                continue;
+            }
+            // 中文原文句与句之间没有空格，译成英文后需要补一个
+            if (lastTranslated && "en".equals(target)) sb.append(' ');
+            sb.append(mem.get(normalize(p.text())));
+            lastTranslated = true;
+        }
+        return new Result(sb.toString(), segments, hits, batches);
+    }
+
+    /* 流式翻译：定长文本块按整行拼接后逐段翻译写出，文件前面的改动不会影响后面片段的切分 */
+    public static Result translateStream(Iterator<String> chunks, String lang, PromptCall upstream, Writer w) throws IOException {
+        StringBuilder carry = new StringBuilder();
+        int segments = 0, hits = 0, batches = 0;
+        while (chunks.hasNext() || carry.length() > 0) {
+            String text;
+            if (chunks.hasNext()) {
+                carry.append(chunks.next());
+                int nl = carry.lastIndexOf("\n");
+                if (nl < 0) continue;
+                text = carry.substring(0, nl + 1);
+                carry.delete(0, nl + 1);
+            } else {
+                text = carry.toString();
+                carry.setLength(0);
+            }
+            Result r = translate(text, lang, upstream);
+            w.write(r.text());
+            w.flush();
+            segments += r.segments();
+            hits += r.hits();
+            batches += r.batches();
+        }
+        return new Result("", segments, hits, batches);
+    }
+
+    /* 一批片段编号后一次请求；回复里缺失的编号逐条补译 */
+    private static List<String> translateBatch(List<String> sources, String lang, PromptCall upstream) throws IOException {
+        String[] out = new String[sources.size()];
+        if (sources.size() > 1) {
+            String reply = upstream.call(Prompts.translateSegments(sources, lang));
+            for (String line : reply.split("\n")) {
+                Matcher m = NUMBERED.matcher(line);
+                if (!m.matches()) continue;
+                int idx = Integer.parseInt(m.group(1)) - 1;
+                if (idx >= 0 && idx < out.length && out[idx] == null) out[idx] = m.group(2).strip();
+            }
+        }
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == null || out[i].isEmpty()) {
+                Metrics.counter("tm_fallback_total").inc();
+                out[i] = upstream.call(Prompts.translate(sources.get(i), lang)).strip();
+            }
+        }
+        return Arrays.asList(out);
+    }
+
+    /**
+     * 切分：逐行处理，行首尾空白、空行、``` 代码块和不含文字的行原样保留；
+     * 过长的行按句末标点再切，句间空白原样保留
+     */
+    static List<Piece> segment(String text) {
+        List<Piece> pieces = new ArrayList<>();
+        boolean inCode = false;
+        int pos = 0;
+        while (pos < text.length()) {
+            int nl = text.indexOf('\n', pos);
+            int end = nl < 0 ? text.length() : nl + 1;
+            String line = text.substring(pos, end);
+            pos = end;
+
+            String body = line.strip();
+            if (body.startsWith("```")) inCode = !inCode;
+            if (inCode || body.startsWith("```") || !hasLetters(body)) {
+                pieces.add(new Piece(line, false));
+                continue;
+            }
+            // 行首缩进和 Markdown 标记（标题 #、列表符号、编号、引用 >）不进入片段
+            Matcher mk = MARKUP.matcher(line);
+            int lead = mk.lookingAt() ? mk.end() : 0;
+            body = line.substring(lead).strip();
+            pieces.add(new Piece(line.substring(0, lead), false));
+            if (body.length() <= MAX_SEGMENT) {
+                pieces.add(new Piece(body, true));
+            } else {
+                for (String s : SENTENCE_END.split(body)) {
+                    String sb = s.strip();
+                    if (sb.isEmpty()) continue;
+                    int l = s.indexOf(sb);
+                    if (l > 0) pieces.add(new Piece(s.substring(0, l), false));
+                    pieces.add(new Piece(sb, hasLetters(sb)));
+                }
+            }
+            pieces.add(new Piece(line.substring(lead + body.length()), false));
+        }
+        pieces.removeIf(p -> p.text().isEmpty());
+        return pieces;
+    }
+
+    /* 记忆键：NFKC，空白折叠为一个空格 */
+    static String normalize(String s) {
+        return Normalizer.normalize(s, Normalizer.Form.NFKC).strip().replaceAll("\\s+", " ");
+    }
+
+    private static boolean hasLetters(String s) {
+        return s.codePoints().anyMatch(Character::isLetter);
+    }
+
+    private static Map<String, String> memory(String lang) {
+        return MEMORY.computeIfAbsent(lang, TranslationMemory::load);
+    }
+
+    private static Path file(String lang) {
+        return Paths.get(ConfigManager.getConfigDir(), "tm", lang + ".jsonl");
+    }
+
+    private static Map<String, String> load(String lang) {
+        Map<String, String> map = new ConcurrentHashMap<>();
+        Path f = file(lang);
+        if (!Files.exists(f)) return map;
+        try (BufferedReader r = Files.newBufferedReader(f, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                try {
+                    JsonNode n = MAPPER.readTree(line);
+                    map.put(n.path("s").asText(), n.path("t").asText());
+                } catch (IOException e) {
+                    // 进程中途退出留下的半行，跳过
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ 读取翻译记忆失败: " + e.getMessage());
+        }
+        return map;
+    }
+
+    /* 写入内存并追加到记忆文件，一批一次写盘 */
+    private static void remember(String lang, List<String> keys, List<String> translations) throws IOException {
+        Map<String, String> mem = memory(lang);
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            mem.put(keys.get(i), translations.get(i));
+            lines.append(MAPPER.writeValueAsString(Map.of("s", keys.get(i), "t", translations.get(i)))).append('\n');
+        }
+        synchronized (TranslationMemory.class) {
+            Path f = file(lang);
+            Files.createDirectories(f.getParent());
+            Files.writeString(f, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.example.usage.UsageTag;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 目录级代码补全：遍历源码树，按内容哈希做增量，只把变更过的文件发给模型
+ * 清单（哈希 + 结果位置）保存在输出目录的 manifest 里，未变更的文件完全跳过
+ */
+public class TreeCompleter {
+
+    public static final String MANIFEST = ".completion-manifest.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final Set<String> SOURCE_EXT = Set.of(
+            "java", "kt", "py", "go", "rs", "c", "h", "cpp", "hpp", "cc", "js", "ts", "jsx", "tsx",
+            "cs", "rb", "php", "swift", "scala", "sql", "sh");
+
+    private static final Set<String> SKIP_DIRS = Set.of(
+            ".git", ".idea", ".svn", "target", "build", "out", "node_modules", "__pycache__", ".gradle");
+
+    private final DeepSeekClient client;
+    private final String key;
+    private final int parallelism;
+    private final UsageTag tag;
+
+    /** 清单中一个文件的记录；size/mtime 用来在不读文件的情况下快速判定未变更 */
+    public record Entry(String hash, long size, long mtime, String result, long time) {
+    }
+
+    /** 一次运行的统计 */
+    public record Report(int total, int changed, int skipped, int failed, int removed, long elapsedMs) {
+    }
+
+    public TreeCompleter(DeepSeekClient client, String key, int parallelism, UsageTag tag) {
+        this.client = client;
+        this.key = key;
+        this.parallelism = Math.max(1, parallelism);
+        this.tag = tag;
+    }
+
+    public Report run(Path root, Path outDir) throws IOException {
+        long t0 = System.nanoTime();
+        root = root.toAbsolutePath().normalize();
+        outDir = outDir.toAbsolutePath().normalize();
+        Files.createDirectories(outDir);
+
+        Path manifestFile = outDir.resolve(MANIFEST);
+        Map<String, Entry> manifest = loadManifest(manifestFile);
+        List<Path> sources = listSources(root, outDir);
+
+        // 1. 先用 size + mtime 过滤，剩下的再算哈希比对
+        Map<String, Entry> next = new ConcurrentHashMap<>();
+        List<Path> changed = new ArrayList<>();
+        for (Path src : sources) {
+            String rel = relative(root, src);
+            BasicFileAttributes attr = Files.readAttributes(src, BasicFileAttributes.class);
+            long size = attr.size();
+            long mtime = attr.lastModifiedTime().toMillis();
+            Entry old = manifest.get(rel);
+            if (old != null && old.size() == size && old.mtime() == mtime) {
+                next.put(rel, old);
+                continue;
+            }
+            String hash = FileTool.sha256(src);
+            if (old != null && old.hash().equals(hash)) {
+                next.put(rel, new Entry(hash, size, mtime, old.result(), old.time()));
+                continue;
+            }
+            changed.add(src);
+        }
+
+        // 2. 只把变更的文件并发发给模型
+        int failed = 0;
+        if (!changed.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, changed.size()), r -> {
+                Thread t = new Thread(r, "tree-complete");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                Map<Path, Future<Entry>> futures = new LinkedHashMap<>();
+                for (Path src : changed) {
+                    Path r = root;
+                    Path o = outDir;
+                    futures.put(src, pool.submit(() -> complete(r, o, src)));
+                }
+                for (Map.Entry<Path, Future<Entry>> f : futures.entrySet()) {
+                    String rel = relative(root, f.getKey());
+                    try {
+                        next.put(rel, f.getValue().get());
+                    } catch (ExecutionException e) {
+                        failed++;
+                        // 失败的文件不写入新哈希，下次运行会重试
+                        Entry old = manifest.get(rel);
+                        if (old != null) next.put(rel, old);
+                        System.err.println("❌ 补全失败 " + rel + ": " + e.getCause().getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("补全被中断", e);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        // 3. 源码树中已删除的文件从清单中移除
+        int removed = 0;
+        for (String rel : manifest.keySet()) {
+            if (!next.containsKey(rel) && !Files.exists(root.resolve(rel))) removed++;
+        }
+
+        MAPPER.writeValue(manifestFile.toFile(), new TreeMap<>(next));
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        return new Report(sources.size(), changed.size() - failed, sources.size() - changed.size(), failed, removed, ms);
+    }
+
+    /*
+     * 只读一次文件：哈希和发给模型的内容出自同一份字节，记录的哈希不会与实际补全的内容不符；
+     * 属性在读内容之前取，读的过程中文件又被改动时下次运行会因 mtime 不符重新比对
+     */
+    private Entry complete(Path root, Path outDir, Path src) throws IOException {
+        String rel = relative(root, src);
+        BasicFileAttributes attr = Files.readAttributes(src, BasicFileAttributes.class);
+        byte[] data = Files.readAllBytes(src);
+        String hash = FileTool.sha256(data);
+        String content = FileTool.decode(data);
+        String raw = client.code(key, Prompts.complete(rel, content), tag);
+        CodeExtractor.Result r = CodeExtractor.extract(raw);
+        String code = r.blocks().isEmpty() ? raw : r.blocks().get(0).code();
+
+        Path out = outDir.resolve(rel);
+        Files.createDirectories(out.getParent());
+        Files.writeString(out, code, StandardCharsets.UTF_8);
+        return new Entry(hash, attr.size(), attr.lastModifiedTime().toMillis(), rel, System.currentTimeMillis());
+    }
+
+    private static List<Path> listSources(Path root, Path outDir) throws IOException {
+        List<Path> list = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && (SKIP_DIRS.contains(dir.getFileName().toString())
+                        || dir.getFileName().toString().startsWith(".") || dir.startsWith(outDir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (attrs.isRegularFile() && dot > 0 && SOURCE_EXT.contains(name.substring(dot + 1).toLowerCase())) {
+                    list.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(list);
+        return list;
+    }
+
+    private static Map<String, Entry> loadManifest(Path file) throws IOException {
+        if (!Files.exists(file)) return new HashMap<>();
+        return MAPPER.readValue(file.toFile(), new TypeReference<HashMap<String, Entry>>() {
+        });
+    }
+
+    private static String relative(Path root, Path p) {
+        return root.relativize(p).toString().replace('\\', '/');
+    }
+}
@@ -2,6 +2,7 @@ package org.example;
 
 import org.apache.poi.xwpf.usermodel.*;
 import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
+import org.example.metrics.Metrics;
 
 import java.io.IOException;
 import java.nio.file.*;
@@ -12,6 +13,7 @@ public class WordExporter {
      * 导出论文到Word文档，支持Markdown格式
      */
     public static void export(String title, String outline, String body, String outFile) throws IOException {
+        long t0 = System.nanoTime();
         try (XWPFDocument doc = new XWPFDocument()) {
 
             // 1. 添加标题
@@ -77,8 +79,11 @@ public class WordExporter {
             try (var out = Files.newOutputStream(Paths.get(outFile))) {
                 doc.write(out);
             }
+            Metrics.histogram("word_export_us").recordSince(t0);
+            Metrics.histogram("word_export_bytes").record(Files.size(Paths.get(outFile)));
 
         } catch (Exception e) {
+            Metrics.counter("word_export_failures_total").inc();
             throw new IOException("导出Word文档失败: " + e.getMessage(), e);
         }
     }
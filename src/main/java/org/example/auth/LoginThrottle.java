@@ -0,0 +1,70 @@
+package org.example.auth;
+
+import org.example.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按用户名的登录失败限流：滑动窗口内失败次数达到上限后，直接拒绝，不再查库、不再做哈希
+ * 只保存在内存中，进程重启即清零
+ */
+public class LoginThrottle {
+
+    private final int maxFailures;
+    private final long windowMillis;
+    private final Map<String, Deque<Long>> failures = new ConcurrentHashMap<>();
+
+    public LoginThrottle(int maxFailures, long windowMillis) {
+        this.maxFailures = maxFailures;
+        this.windowMillis = windowMillis;
+    }
+
+    /* 还需等待的秒数，0 表示允许尝试 */
+    public long retryAfterSeconds(String username) {
+        Deque<Long> q = failures.get(key(username));
+        if (q == null) return 0;
+        synchronized (q) {
+            long now = System.currentTimeMillis();
+            prune(q, now);
+            if (q.size() < maxFailures) return 0;
+            Metrics.counter("auth_throttled_total").inc();
+            return Math.max(1, (q.peekFirst() + windowMillis - now + 999) / 1000);
+        }
+    }
+
+    public void recordFailure(String username) {
+        long now = System.currentTimeMillis();
+        Deque<Long> q = failures.computeIfAbsent(key(username), k -> new ArrayDeque<>());
+        synchronized (q) {
+            prune(q, now);
+            q.addLast(now);
+        }
+        if (failures.size() > 10_000) cleanup(now);
+    }
+
+    public void recordSuccess(String username) {
+        failures.remove(key(username));
+    }
+
+    /* 清掉窗口已过的用户名，防止被大量随机用户名撑大 */
+    private void cleanup(long now) {
+        failures.entrySet().removeIf(e -> {
+            synchronized (e.getValue()) {
+                prune(e.getValue(), now);
+                return e.getValue().isEmpty();
+            }
+        });
+    }
+
+    private void prune(Deque<Long> q, long now) {
+        while (!q.isEmpty() && q.peekFirst() <= now - windowMillis) q.pollFirst();
+    }
+
+    private static String key(String username) {
+        return username == null ? "" : username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.auth;
+
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 口令哈希：PBKDF2-HmacSHA256 + 随机盐，存储格式 pbkdf2$迭代次数$盐$哈希（Base64）
+ * 迭代次数可配置（auth.pbkdf2_iterations）；未配置时按 auth.hash_target_ms 在本机标定一次并写回配置
+ * 不带 pbkdf2$ 前缀的旧记录按明文比较，登录成功后由调用方重新哈希
+ */
+public class PasswordHasher {
+
+    public static final String PREFIX = "pbkdf2$";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+    /** 标定结果的下限 / 上限，避免慢机器上过弱、快机器上登录过慢 */
+    private static final int MIN_ITERATIONS = 100_000;
+    private static final int MAX_ITERATIONS = 5_000_000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static volatile int iterations;
+
+    private PasswordHasher() {
+    }
+
+    public static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        int iter = iterations();
+        byte[] dk = derive(password, salt, iter);
+        Base64.Encoder b64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iter + "$" + b64.encodeToString(salt) + "$" + b64.encodeToString(dk);
+    }
+
+    /* 常量时间比较；格式损坏的记录一律验证失败 */
+    public static boolean verify(String password, String stored) {
+        if (password == null || stored == null) return false;
+        long t0 = System.nanoTime();
+        try {
+            if (!stored.startsWith(PREFIX)) {
+                return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+            }
+            String[] parts = stored.split("\\$");
+            if (parts.length != 4) return false;
+            int iter = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(derive(password, salt, iter, expected.length * 8), expected);
+        } catch (IllegalArgumentException e) {
+            return false;
+        } finally {
+            Metrics.histogram("auth_verify_us").recordSince(t0);
+        }
+    }
+
+    /* 旧的明文记录，或迭代次数低于当前配置时需要升级 */
+    public static boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) return true;
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations();
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /* 当前使用的迭代次数：配置优先，否则标定一次并保存 */
+    public static int iterations() {
+        int iter = iterations;
+        if (iter > 0) return iter;
+        synchronized (PasswordHasher.class) {
+            if (iterations > 0) return iterations;
+            long configured = ConfigManager.getLong(ConfigManager.KEY_PBKDF2_ITERATIONS, 0);
+            if (configured > 0) {
+                iterations = (int) Math.min(configured, MAX_ITERATIONS);
+            } else {
+                iterations = calibrate(ConfigManager.getLong(ConfigManager.KEY_HASH_TARGET_MS, 150));
+                ConfigManager.setConfig(ConfigManager.KEY_PBKDF2_ITERATIONS, String.valueOf(iterations));
+            }
+            return iterations;
+        }
+    }
+
+    /**
+     * 按目标耗时标定迭代次数：先用小次数预热并测速，再线性外推
+     */
+    public static int calibrate(long targetMs) {
+        byte[] salt = new byte[SALT_BYTES];
+        int probe = 20_000;
+        derive("calibration", salt, probe);                     // 预热 JIT
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long t0 = System.nanoTime();
+            derive("calibration", salt, probe);
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        double perIter = (double) best / probe;
+        long iter = (long) (targetMs * 1_000_000.0 / perIter);
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iter));
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iter) {
+        return derive(password, salt, iter, KEY_BITS);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iter, int bits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iter, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 不可用", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
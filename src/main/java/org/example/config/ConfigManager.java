@@ -5,7 +5,10 @@ import org.example.util.ConsoleUtil;
 import java.awt.*;
 import java.io.*;
 import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Base64;
 import java.nio.charset.StandardCharsets;
 
@@ -18,19 +21,56 @@ public class ConfigManager {
     private static final String CONFIG_DIR = System.getProperty("user.home") + "/.deepseek-console";
     private static final String CONFIG_FILE = CONFIG_DIR + "/config.properties";
     private static final String KEY_ENV_VAR = "DEEPSEEK_API_KEY";
+    private static final String KEYS_ENV_VAR = "DEEPSEEK_API_KEYS";
     private static final String KEY_CONFIG_NAME = "api.key";
+    private static final String URL_ENV_VAR = "DEEPSEEK_API_URL";
+    private static final String URL_PROPERTY = "deepseek.api.url";
 
     private static final String SIMPLE_ENCRYPT_KEY = "DeepSeekConsole2024!";
 
     // 配置项常量
     public static final String KEY_API_KEY = "api.key";
+    /** 密钥池中除 api.key 以外的密钥，逗号分隔，每个单独加密 */
+    public static final String KEY_API_KEYS = "api.keys";
+    public static final String KEY_API_URL = "api.url";
     public static final String KEY_MODEL = "api.model";
     public static final String KEY_TEMPERATURE = "api.temperature";
     public static final String KEY_TIMEOUT = "api.timeout";
     public static final String KEY_AUTO_SAVE = "app.auto_save";
+    public static final String KEY_CODE_PARALLELISM = "code.parallelism";
+    public static final String KEY_STREAM_THRESHOLD = "file.stream_threshold";
+    public static final String KEY_PIPE_WORKERS = "pipe.workers";
+    public static final String KEY_METRICS_INTERVAL = "metrics.dump_interval";
+    public static final String KEY_USAGE_FLUSH_INTERVAL = "usage.flush_interval";
+    public static final String KEY_PRICE_INPUT = "usage.price_input";
+    public static final String KEY_PRICE_OUTPUT = "usage.price_output";
+    public static final String KEY_CACHE_SIZE = "cache.max_entries";
+    public static final String KEY_CACHE_TTL = "cache.ttl_seconds";
+    public static final String KEY_PBKDF2_ITERATIONS = "auth.pbkdf2_iterations";
+    public static final String KEY_HASH_TARGET_MS = "auth.hash_target_ms";
+    public static final String KEY_LOGIN_MAX_FAILURES = "auth.max_failures";
+    public static final String KEY_LOGIN_WINDOW = "auth.failure_window_seconds";
+    public static final String KEY_SERVER_HOST = "server.host";
+    public static final String KEY_SERVER_PORT = "server.port";
+    public static final String KEY_SERVER_THREADS = "server.threads";
+    public static final String KEY_SERVER_UPSTREAM = "server.upstream_concurrency";
+    public static final String KEY_SERVER_SESSION_IDLE = "server.session_idle_minutes";
+    public static final String KEY_HEDGE_ENABLED = "hedge.enabled";
+    public static final String KEY_HEDGE_FEATURES = "hedge.features";
+    public static final String KEY_HEDGE_PERCENTILE = "hedge.percentile";
+    public static final String KEY_HEDGE_MIN_DELAY = "hedge.min_delay_ms";
+    public static final String KEY_HEDGE_MAX_DELAY = "hedge.max_delay_ms";
+    public static final String KEY_DEDUP_MAX_ENTRIES = "dedup.max_entries";
+    /** 后接功能代码，如 dedup.threshold.summary */
+    public static final String KEY_DEDUP_THRESHOLD_PREFIX = "dedup.threshold.";
+    public static final String KEY_BLOB_THRESHOLD = "store.blob_threshold_bytes";
+    public static final String KEY_KEYPOOL_COOLDOWN = "keypool.cooldown_seconds";
 
     private static Properties config;
 
+    // 解密后的密钥快照，首次使用时生成；密钥配置变更时作废
+    private static volatile List<String> apiKeys;
+
     static {
         loadConfig();
     }
@@ -39,22 +79,96 @@ public class ConfigManager {
      * 获取API密钥（主方法）
      */
     public static String getApiKey() {
-        // 1. 检查环境变量
-        String envKey = System.getenv(KEY_ENV_VAR);
-        if (envKey != null && !envKey.trim().isEmpty()) {
-            return envKey.trim();
-        }
-
-        // 2. 检查配置文件
-        String configKey = config.getProperty(KEY_API_KEY);
-        if (configKey != null && !configKey.trim().isEmpty()) {
-            return decrypt(configKey.trim());
+        String key = findApiKey();
+        if (key != null) {
+            return key;
         }
 
         // 3. 提示用户输入
         return promptForApiKey();
     }
 
+    /**
+     * 非交互地查找API密钥（环境变量 > 配置文件），找不到返回 null，不会提示输入
+     * 配置了密钥池时返回池中第一个；实际发请求用哪个由 KeyPool 调度
+     */
+    public static String findApiKey() {
+        List<String> keys = getApiKeys();
+        return keys.isEmpty() ? null : keys.get(0);
+    }
+
+    /**
+     * 全部API密钥（不可变快照，只解密一次）
+     * 环境变量 DEEPSEEK_API_KEYS（逗号分隔）/ DEEPSEEK_API_KEY 有值时只用环境变量，否则用配置文件的 api.key + api.keys
+     */
+    public static List<String> getApiKeys() {
+        List<String> keys = apiKeys;
+        if (keys == null) {
+            synchronized (ConfigManager.class) {
+                if (apiKeys == null) apiKeys = loadApiKeys();
+                keys = apiKeys;
+            }
+        }
+        return keys;
+    }
+
+    private static List<String> loadApiKeys() {
+        Set<String> keys = new LinkedHashSet<>();
+        splitKeys(System.getenv(KEY_ENV_VAR), false, keys);
+        splitKeys(System.getenv(KEYS_ENV_VAR), false, keys);
+        if (keys.isEmpty()) {
+            splitKeys(config.getProperty(KEY_API_KEY), true, keys);
+            splitKeys(config.getProperty(KEY_API_KEYS), true, keys);
+        }
+        return List.copyOf(keys);
+    }
+
+    private static void splitKeys(String value, boolean encrypted, Set<String> out) {
+        if (value == null) return;
+        for (String k : value.split(",")) {
+            String t = k.trim();
+            if (!t.isEmpty()) out.add(encrypted ? decrypt(t) : t);
+        }
+    }
+
+    /**
+     * 把一个密钥加入密钥池（加密保存到 api.keys）
+     */
+    public static void addPoolKey(String apiKey) {
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            return;
+        }
+        String current = config.getProperty(KEY_API_KEYS, "").trim();
+        String enc = encrypt(apiKey.trim());
+        config.setProperty(KEY_API_KEYS, current.isEmpty() ? enc : current + "," + enc);
+        saveConfig();
+    }
+
+    /**
+     * 清空密钥池中的额外密钥（api.key 保留）
+     */
+    public static void clearPoolKeys() {
+        config.remove(KEY_API_KEYS);
+        saveConfig();
+    }
+
+    /**
+     * 获取接口地址，未配置时返回 null（使用官方地址）
+     * 优先级：系统属性 > 环境变量 > 配置文件
+     */
+    public static String getApiUrl() {
+        String prop = System.getProperty(URL_PROPERTY);
+        if (prop != null && !prop.trim().isEmpty()) {
+            return prop.trim();
+        }
+        String env = System.getenv(URL_ENV_VAR);
+        if (env != null && !env.trim().isEmpty()) {
+            return env.trim();
+        }
+        String configured = config.getProperty(KEY_API_URL);
+        return configured != null && !configured.trim().isEmpty() ? configured.trim() : null;
+    }
+
     /**
      * 提示用户输入API密钥
      */
@@ -113,6 +227,28 @@ public class ConfigManager {
         return value != null ? value : defaultValue;
     }
 
+    /**
+     * 获取整数配置值，未配置或格式错误时返回默认值
+     */
+    public static long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getConfig(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 获取小数配置值，未配置或格式错误时返回默认值
+     */
+    public static double getDouble(String key, double defaultValue) {
+        try {
+            return Double.parseDouble(getConfig(key, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * 设置配置值
      */
@@ -141,7 +277,8 @@ public class ConfigManager {
             ConsoleUtil.printLine("4. 设置默认模型");
             ConsoleUtil.printLine("5. 设置高级参数");
             ConsoleUtil.printLine("6. 打开配置文件目录");
-            ConsoleUtil.printLine("7. 返回主菜单");
+            ConsoleUtil.printLine("7. 管理密钥池");
+            ConsoleUtil.printLine("8. 返回主菜单");
 
             String choice = ConsoleUtil.readLine("请选择: ").trim();
 
@@ -165,13 +302,16 @@ public class ConfigManager {
                     openConfigDirectory();
                     break;
                 case "7":
+                    manageKeyPool();
+                    break;
+                case "8":
                     running = false;
                     break;
                 default:
                     ConsoleUtil.printLine("❌ 无效选项");
             }
 
-            if (!"7".equals(choice)) {
+            if (!"8".equals(choice)) {
                 ConsoleUtil.readLine("\n按回车键继续...");
             }
         }
@@ -192,9 +332,11 @@ public class ConfigManager {
             ConsoleUtil.printLine("API密钥: ❌ 未配置");
         }
 
+        ConsoleUtil.printLine("密钥池: " + getApiKeys().size() + " 个可用密钥");
+
         // 显示其他配置
         for (String keyName : config.stringPropertyNames()) {
-            if (!KEY_API_KEY.equals(keyName)) {
+            if (!KEY_API_KEY.equals(keyName) && !KEY_API_KEYS.equals(keyName)) {
                 String value = config.getProperty(keyName);
                 ConsoleUtil.printLine(keyName + ": " + value);
             }
@@ -236,6 +378,38 @@ public class ConfigManager {
         ConsoleUtil.printLine("✅ API密钥已保存");
     }
 
+    /**
+     * 密钥池：多个密钥轮流使用，被限流的密钥自动暂停，吞吐不再受单个密钥的限额约束
+     */
+    private static void manageKeyPool() {
+        List<String> keys = getApiKeys();
+        ConsoleUtil.printLine("\n🔑 密钥池（当前 " + keys.size() + " 个）");
+        for (int i = 0; i < keys.size(); i++) {
+            ConsoleUtil.printLine("  #" + (i + 1) + " " + mask(keys.get(i)));
+        }
+        if (System.getenv(KEY_ENV_VAR) != null || System.getenv(KEYS_ENV_VAR) != null) {
+            ConsoleUtil.printLine("⚠️ 已设置环境变量，配置文件中的密钥不会生效");
+        }
+        String choice = ConsoleUtil.readLine("1. 添加密钥  2. 清空额外密钥  其他键返回: ").trim();
+        if ("1".equals(choice)) {
+            String key = ConsoleUtil.readLine("请输入API密钥: ").trim();
+            if (key.isEmpty()) {
+                ConsoleUtil.printLine("❌ 密钥不能为空");
+                return;
+            }
+            addPoolKey(key);
+            ConsoleUtil.printLine("✅ 已加入密钥池");
+        } else if ("2".equals(choice)) {
+            clearPoolKeys();
+            ConsoleUtil.printLine("✅ 已清空额外密钥（api.key 保留）");
+        }
+    }
+
+    /* 只显示末四位 */
+    public static String mask(String key) {
+        return key.length() <= 4 ? "****" : "****" + key.substring(key.length() - 4);
+    }
+
     /**
      * 设置默认模型
      */
@@ -303,6 +477,33 @@ public class ConfigManager {
             }
         }
 
+        // 接口地址（可指向本地模拟服务做压测）
+        String currentUrl = config.getProperty(KEY_API_URL, "官方默认");
+        String url = ConsoleUtil.readLine("接口地址 (重启后生效，输入 default 恢复官方地址，当前 " + currentUrl + "): ").trim();
+        if ("default".equalsIgnoreCase(url)) {
+            config.remove(KEY_API_URL);
+        } else if (url.startsWith("http://") || url.startsWith("https://")) {
+            config.setProperty(KEY_API_URL, url);
+        } else if (!url.isEmpty()) {
+            ConsoleUtil.printLine("❌ 接口地址必须以 http:// 或 https:// 开头");
+        }
+
+        // token 单价（元 / 百万 token），用于 usage 报表估算费用
+        for (String[] p : new String[][]{{KEY_PRICE_INPUT, "输入", "2"}, {KEY_PRICE_OUTPUT, "输出", "8"}}) {
+            String current = config.getProperty(p[0], p[2]);
+            String price = ConsoleUtil.readLine(p[1] + "单价 (元/百万token，当前 " + current + "): ").trim();
+            if (price.isEmpty()) continue;
+            try {
+                if (Double.parseDouble(price) >= 0) {
+                    config.setProperty(p[0], price);
+                } else {
+                    ConsoleUtil.printLine("❌ 单价不能为负数");
+                }
+            } catch (NumberFormatException e) {
+                ConsoleUtil.printLine("❌ 请输入有效的数字");
+            }
+        }
+
         // 自动保存
         String currentAutoSave = config.getProperty(KEY_AUTO_SAVE, "true");
         String autoSave = ConsoleUtil.readLine("自动保存对话 (true/false，当前 " + currentAutoSave + "): ").trim();
@@ -362,6 +563,7 @@ public class ConfigManager {
      * 保存配置文件
      */
     private static void saveConfig() {
+        apiKeys = null;
         try {
             Path configDir = Paths.get(CONFIG_DIR);
             if (!Files.exists(configDir)) {
@@ -1,37 +1,90 @@
 package org.example.config;
 
+import org.example.metrics.Metrics;
+
 import java.sql.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class DatabaseConfig {
     private static final String URL = "jdbc:jtds:sqlserver://localhost:1433/ChatApp";
     private static final String USER = "sa";
     private static final String PASSWORD = "123"; // 替换为您的密码
 
+    // 后台初始化任务；失败后允许下次调用重新发起
+    private static CompletableFuture<Void> init;
+
     static {
         try {
             Class.forName("net.sourceforge.jtds.jdbc.Driver");
-            System.out.println("✅ JTDS驱动加载成功");
-
-            // 启动时初始化数据库
-            initializeDatabase();
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("加载JDBC驱动失败", e);
+        }
+    }
+
+    /**
+     * 在后台线程中初始化数据库（建库、建表），只执行一次，结果缓存在返回的 Future 中
+     * 启动时调用即可开始预热，不会阻塞登录提示
+     */
+    public static synchronized CompletableFuture<Void> initAsync() {
+        if (init == null || init.isCompletedExceptionally()) {
+            init = CompletableFuture.runAsync(() -> {
+                try {
+                    initializeDatabase();
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, r -> {
+                Thread t = new Thread(r, "db-init");
+                t.setDaemon(true);
+                t.start();
+            });
+        }
+        return init;
+    }
+
+    /* 等待初始化完成，返回是否成功 */
+    public static boolean awaitReady() {
+        try {
+            awaitInit();
+            return true;
         } catch (SQLException e) {
             System.err.println("❌ 数据库初始化失败: " + e.getMessage());
+            return false;
         }
     }
 
     public static Connection getConnection() throws SQLException {
+        awaitInit();
+        return openConnection();
+    }
+
+    private static void awaitInit() throws SQLException {
+        try {
+            initAsync().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException se) throw se;
+            throw new SQLException("数据库初始化失败: " + cause, cause);
+        }
+    }
+
+    private static Connection openConnection() throws SQLException {
+        long t0 = System.nanoTime();
         try {
             //System.out.println("尝试连接数据库...");
             Connection conn = DriverManager.getConnection(URL, USER, PASSWORD);
             //System.out.println("✅ 数据库连接成功");
+            Metrics.histogram("db_connect_us").recordSince(t0);
+            Metrics.counter("db_connections_total", "result", "ok").inc();
             return conn;
         } catch (SQLException e) {
+            Metrics.counter("db_connections_total", "result", "failed").inc();
             System.err.println("❌ 数据库连接失败: " + e.getMessage());
 
-            // 如果是数据库不存在的错误，尝试创建数据库
-            if (e.getMessage().contains("database") && e.getMessage().contains("not found")) {
+            // 如果是数据库不存在的错误（4060: Cannot open database），尝试创建数据库
+            if (e.getErrorCode() == 4060
+                    || (e.getMessage().contains("database") && e.getMessage().contains("not found"))) {
                 System.out.println("尝试创建数据库...");
                 if (createDatabase()) {
                     // 重新尝试连接
@@ -43,41 +96,16 @@ public class DatabaseConfig {
         }
     }
 
-    // 初始化数据库和表
+    /*
+     * 初始化数据库：直接连业务库（不存在时 openConnection 会建库），再执行未执行的版本迁移
+     * 库已是最新版本时只有一个连接、两条语句
+     */
     private static void initializeDatabase() throws SQLException {
-        // 确保数据库存在
-        if (!databaseExists()) {
-            System.out.println("数据库不存在，正在创建...");
-            createDatabase();
-        }
-
-        // 确保表存在
-        if (!tableExists("users")) {
-            System.out.println("创建users表...");
-            createUsersTable();
-        }
-
-        if (!tableExists("conversations")) {
-            System.out.println("创建conversations表...");
-            createConversationsTable();
-        }
-
-        System.out.println("✅ 数据库初始化完成");
-    }
-
-    // 检查数据库是否存在
-    private static boolean databaseExists() {
-        String checkDbSql = "SELECT COUNT(*) FROM master.dbo.sysdatabases WHERE name = 'ChatApp'";
-
-        try (Connection conn = getMasterConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkDbSql)) {
-
-            return rs.next() && rs.getInt(1) > 0;
-        } catch (SQLException e) {
-            System.err.println("检查数据库存在失败: " + e.getMessage());
-            return false;
+        long t0 = System.nanoTime();
+        try (Connection conn = openConnection()) {
+            SchemaMigrator.migrate(conn);
         }
+        Metrics.histogram("db_init_us").recordSince(t0);
     }
 
     // 创建数据库
@@ -89,11 +117,7 @@ public class DatabaseConfig {
 
             stmt.execute(createDbSql);
             System.out.println("✅ 数据库创建成功");
-
-            // 创建表
-            createUsersTable();
-            createConversationsTable();
-
+            // 表由 initializeDatabase 中的迁移随后补齐
             return true;
         } catch (SQLException e) {
             System.err.println("❌ 数据库创建失败: " + e.getMessage());
@@ -101,59 +125,6 @@ public class DatabaseConfig {
         }
     }
 
-    // 创建用户表
-    private static void createUsersTable() throws SQLException {
-        String createTableSql =
-                "CREATE TABLE users (" +
-                        "    id INT IDENTITY(1,1) PRIMARY KEY, " +
-                        "    username NVARCHAR(50) NOT NULL UNIQUE, " +
-                        "    password NVARCHAR(100) NOT NULL, " +
-                        "    created_at DATETIME DEFAULT GETDATE()" +
-                        ")";
-
-        executeUpdate(createTableSql);
-        System.out.println("✅ users表创建成功");
-    }
-
-    // 创建对话表
-    private static void createConversationsTable() throws SQLException {
-        String createTableSql =
-                "CREATE TABLE conversations (" +
-                        "    id NVARCHAR(50) PRIMARY KEY, " +
-                        "    user_id INT NOT NULL, " +
-                        "    title NVARCHAR(200) NOT NULL, " +
-                        "    create_time BIGINT NOT NULL, " +
-                        "    last_msg_time BIGINT NOT NULL, " +
-                        "    FOREIGN KEY (user_id) REFERENCES users(id)" +
-                        ")";
-
-        executeUpdate(createTableSql);
-        System.out.println("✅ conversations表创建成功");
-    }
-
-    // 检查表是否存在
-    private static boolean tableExists(String tableName) {
-        String checkTableSql =
-                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = '" + tableName + "'";
-
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(checkTableSql)) {
-
-            return rs.next() && rs.getInt(1) > 0;
-        } catch (SQLException e) {
-            return false;
-        }
-    }
-
-    // 执行更新操作
-    private static void executeUpdate(String sql) throws SQLException {
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-            stmt.executeUpdate(sql);
-        }
-    }
-
     // 获取master数据库连接（用于创建数据库）
     private static Connection getMasterConnection() throws SQLException {
         String masterUrl = "jdbc:jtds:sqlserver://localhost:1433/master";
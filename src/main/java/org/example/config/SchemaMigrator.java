@@ -0,0 +1,217 @@
+package org.example.config;
+
+import org.example.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 版本化的数据库迁移：按序执行 classpath 下 db/migration 中的脚本，已执行的版本记录在 schema_version 表
+ * 每个脚本在一个事务里执行并登记版本，失败整体回滚；多个控制台节点同时启动时用应用锁串行化
+ */
+public class SchemaMigrator {
+
+    public static final String LOCATION = "db/migration/";
+    public static final String INDEX = LOCATION + "migrations.txt";
+
+    private static final Pattern NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern GO = Pattern.compile("(?im)^\\s*GO\\s*;?\\s*$");
+
+    /** 一个迁移脚本 */
+    public record Migration(int version, String description, String script, String checksum) {
+        /* 按独占一行的 GO 拆成批次 */
+        public List<String> batches() {
+            List<String> out = new ArrayList<>();
+            for (String b : GO.split(script)) {
+                if (!b.isBlank()) out.add(b.strip());
+            }
+            return out;
+        }
+    }
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * 执行所有未执行的迁移，返回本次执行的个数
+     * 已执行脚本的校验和与当前不一致时只告警，不重跑
+     */
+    public static int migrate(Connection conn) throws SQLException {
+        long t0 = System.nanoTime();
+        List<Migration> all = load();
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            // 快速路径：版本表已存在且全部执行过，不必拿锁
+            if (versionTableExists(conn)) {
+                Map<Integer, String> applied = applied(conn);
+                if (all.stream().allMatch(m -> applied.containsKey(m.version()))) {
+                    warnChecksums(all, applied);
+                    return 0;
+                }
+            }
+
+            // 有待执行的迁移（或版本表还没建）：拿会话级应用锁后再建表、重新读取版本，防止两个节点重复执行
+            conn.setAutoCommit(true);
+            acquireLock(conn);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("""
+                        IF OBJECT_ID(N'schema_version', N'U') IS NULL
+                        CREATE TABLE schema_version (
+                            version INT PRIMARY KEY,
+                            description NVARCHAR(200) NOT NULL,
+                            checksum NVARCHAR(64) NOT NULL,
+                            installed_at BIGINT NOT NULL,
+                            execution_ms BIGINT NOT NULL
+                        )""");
+                Map<Integer, String> current = applied(conn);
+                warnChecksums(all, current);
+                int count = 0;
+                for (Migration m : all) {
+                    if (current.containsKey(m.version())) continue;
+                    apply(conn, m);
+                    count++;
+                }
+                return count;
+            } finally {
+                conn.setAutoCommit(true);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("EXEC sp_releaseapplock @Resource = 'schema_migration', @LockOwner = 'Session'");
+                }
+                conn.setAutoCommit(autoCommit);
+            }
+        } finally {
+            Metrics.histogram("db_migrate_us").recordSince(t0);
+        }
+    }
+
+    /* sp_getapplock 返回 0/1 表示拿到锁，负数为超时(-1)、被取消(-2)、死锁(-3)或参数错误(-999) */
+    private static void acquireLock(Connection conn) throws SQLException {
+        try (CallableStatement cs = conn.prepareCall("{? = call sp_getapplock(?, ?, ?, ?)}")) {
+            cs.registerOutParameter(1, Types.INTEGER);
+            cs.setString(2, "schema_migration");
+            cs.setString(3, "Exclusive");
+            cs.setString(4, "Session");
+            cs.setInt(5, 60000);
+            cs.execute();
+            int result = cs.getInt(1);
+            if (result < 0) {
+                throw new SQLException("获取数据库迁移锁失败（sp_getapplock 返回 " + result + "），请稍后重试");
+            }
+        }
+    }
+
+    private static boolean versionTableExists(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT OBJECT_ID(N'schema_version', N'U')")) {
+            return rs.next() && rs.getObject(1) != null;
+        }
+    }
+
+    /* 当前库已执行到的最高版本，没有任何迁移时为 0 */
+    public static int currentVersion(Connection conn) throws SQLException {
+        return applied(conn).keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    /* 读取 classpath 中登记的全部迁移，按版本排序 */
+    public static List<Migration> load() {
+        List<Migration> list = new ArrayList<>();
+        for (String name : readLines(INDEX)) {
+            Matcher m = NAME.matcher(name);
+            if (!m.matches()) throw new IllegalStateException("迁移脚本命名不合法: " + name);
+            String script = String.join("\n", readLines(LOCATION + name));
+            list.add(new Migration(Integer.parseInt(m.group(1)), m.group(2).replace('_', ' '), script, sha256(script)));
+        }
+        list.sort((a, b) -> Integer.compare(a.version(), b.version()));
+        for (int i = 1; i < list.size(); i++) {
+            if (list.get(i).version() == list.get(i - 1).version()) {
+                throw new IllegalStateException("迁移版本重复: V" + list.get(i).version());
+            }
+        }
+        return list;
+    }
+
+    private static void apply(Connection conn, Migration m) throws SQLException {
+        long t0 = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String batch : m.batches()) stmt.execute(batch);
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description, checksum, installed_at, execution_ms) VALUES (?, ?, ?, ?, ?)")) {
+                ps.setInt(1, m.version());
+                ps.setString(2, m.description());
+                ps.setString(3, m.checksum());
+                ps.setLong(4, System.currentTimeMillis());
+                ps.setLong(5, (System.nanoTime() - t0) / 1_000_000);
+                ps.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("✅ 数据库迁移 V" + m.version() + " " + m.description() + " 完成");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("数据库迁移 V" + m.version() + " 失败: " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static Map<Integer, String> applied(Connection conn) throws SQLException {
+        Map<Integer, String> map = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) map.put(rs.getInt(1), rs.getString(2));
+        }
+        return map;
+    }
+
+    private static void warnChecksums(List<Migration> all, Map<Integer, String> applied) {
+        for (Migration m : all) {
+            String sum = applied.get(m.version());
+            if (sum != null && !sum.equals(m.checksum())) {
+                System.err.println("⚠️ 迁移 V" + m.version() + " 执行后被修改过（校验和不一致），不会重跑，请新增迁移脚本");
+            }
+        }
+    }
+
+    /* 读取 classpath 文本资源，跳过空行和 # 注释（仅对清单文件有意义，脚本里 SQL 注释是 --） */
+    private static List<String> readLines(String resource) {
+        InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) throw new IllegalStateException("找不到迁移资源: " + resource);
+        boolean index = resource.equals(INDEX);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (index) {
+                    line = line.strip();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                }
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("读取迁移资源失败: " + resource, e);
+        }
+        return lines;
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
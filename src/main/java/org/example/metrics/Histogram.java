@@ -0,0 +1,100 @@
+package org.example.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定 1-2-5 指数分桶的直方图，记录 long 值（耗时统一用微秒，大小用字节）
+ * 记录路径无锁，分位数按桶内线性插值估算
+ */
+public class Histogram {
+
+    /** 桶上界：1, 2, 5, 10, 20, 50 … 5e10 */
+    static final long[] BOUNDS;
+
+    static {
+        long[] b = new long[33];
+        long base = 1;
+        for (int i = 0; i < b.length; i += 3) {
+            b[i] = base;
+            if (i + 1 < b.length) b[i + 1] = base * 2;
+            if (i + 2 < b.length) b[i + 2] = base * 5;
+            base *= 10;
+        }
+        BOUNDS = b;
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];   // 最后一个是溢出桶
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        int lo = 0;
+        int hi = BOUNDS.length;
+        while (lo < hi) {                       // 第一个 >= value 的上界
+            int mid = (lo + hi) >>> 1;
+            if (BOUNDS[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        buckets[lo].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /* 记录从 startNanos 到现在的耗时（微秒） */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double mean() {
+        long c = getCount();
+        return c == 0 ? 0 : (double) getSum() / c;
+    }
+
+    /* 估算分位数，p 取 0~100 */
+    public double percentile(double p) {
+        long[] counts = bucketCounts();
+        long total = 0;
+        for (long c : counts) total += c;
+        if (total == 0) return 0;
+        double rank = p / 100.0 * total;
+        long cum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            if (cum + counts[i] >= rank) {
+                double lower = i == 0 ? 0 : BOUNDS[i - 1];
+                double upper = i < BOUNDS.length ? BOUNDS[i] : getMax();
+                double v = lower + (upper - lower) * ((rank - cum) / counts[i]);
+                return Math.min(v, getMax());
+            }
+            cum += counts[i];
+        }
+        return getMax();
+    }
+
+    /* 各桶计数（非累计），长度为 BOUNDS.length + 1 */
+    public long[] bucketCounts() {
+        long[] out = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) out[i] = buckets[i].sum();
+        return out;
+    }
+}
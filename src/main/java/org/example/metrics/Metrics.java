@@ -0,0 +1,86 @@
+package org.example.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内指标注册表：计数器和直方图，按 名称 + 标签 区分
+ * 用法：Metrics.counter("deepseek_requests_total", "model", "deepseek-chat", "status", "200").inc();
+ */
+public class Metrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String... labels) {
+        return COUNTERS.computeIfAbsent(key(name, labels), k -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String... labels) {
+        return HISTOGRAMS.computeIfAbsent(key(name, labels), k -> new Histogram());
+    }
+
+    /* 只读取计数，不存在时返回 0 且不创建，供报表查询 */
+    public static long count(String name, String... labels) {
+        Counter c = COUNTERS.get(key(name, labels));
+        return c == null ? 0 : c.get();
+    }
+
+    /* 按键排序的只读快照，供展示和导出 */
+    public static Map<String, Counter> counters() {
+        return new TreeMap<>(COUNTERS);
+    }
+
+    public static Map<String, Histogram> histograms() {
+        return new TreeMap<>(HISTOGRAMS);
+    }
+
+    public static void reset() {
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /* 生成 Prometheus 风格的键：name{k1="v1",k2="v2"} */
+    static String key(String name, String... labels) {
+        if (labels.length == 0) return name;
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    /* 标签值按 Prometheus 文本格式转义：反斜杠、换行、双引号 */
+    static String escape(String v) {
+        if (v == null) return "";
+        if (v.indexOf('\\') < 0 && v.indexOf('\n') < 0 && v.indexOf('"') < 0) return v;
+        StringBuilder sb = new StringBuilder(v.length() + 8);
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '"' -> sb.append("\\\"");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /* 从键中拆出指标名 */
+    static String nameOf(String key) {
+        int b = key.indexOf('{');
+        return b < 0 ? key : key.substring(0, b);
+    }
+
+    /* 从键中拆出标签部分（不含花括号），没有标签时返回空串 */
+    static String labelsOf(String key) {
+        int b = key.indexOf('{');
+        return b < 0 ? "" : key.substring(b + 1, key.length() - 1);
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指标输出：控制台表格（stats 命令）、JSON、Prometheus 文本，以及定时落盘
+ */
+public class MetricsReporter {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static ScheduledExecutorService scheduler;
+
+    private MetricsReporter() {
+    }
+
+    /* 控制台表格；_us 结尾的直方图按毫秒显示 */
+    public static String renderTable() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, Counter> counters = Metrics.counters();
+        Map<String, Histogram> histograms = Metrics.histograms();
+        if (counters.isEmpty() && histograms.isEmpty()) return "（暂无指标）";
+
+        if (!counters.isEmpty()) {
+            sb.append("计数器\n");
+            counters.forEach((k, c) -> sb.append(String.format("  %-70s %12d%n", k, c.get())));
+        }
+        if (!histograms.isEmpty()) {
+            sb.append(String.format("%n%-72s %8s %10s %10s %10s %10s%n", "直方图", "次数", "均值", "p50", "p99", "最大"));
+            histograms.forEach((k, h) -> {
+                boolean micros = Metrics.nameOf(k).endsWith("_us");
+                double div = micros ? 1000.0 : 1.0;
+                String unit = micros ? "ms" : "";
+                sb.append(String.format("  %-70s %8d %10s %10s %10s %10s%n", k, h.getCount(),
+                        fmt(h.mean() / div, unit), fmt(h.percentile(50) / div, unit),
+                        fmt(h.percentile(99) / div, unit), fmt(h.getMax() / div, unit)));
+            });
+        }
+        return sb.toString();
+    }
+
+    public static String renderJson() throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("timestamp", System.currentTimeMillis());
+        ObjectNode cs = root.putObject("counters");
+        Metrics.counters().forEach((k, c) -> cs.put(k, c.get()));
+        ObjectNode hs = root.putObject("histograms");
+        Metrics.histograms().forEach((k, h) -> {
+            ObjectNode n = hs.putObject(k);
+            n.put("count", h.getCount());
+            n.put("sum", h.getSum());
+            n.put("mean", h.mean());
+            n.put("p50", h.percentile(50));
+            n.put("p90", h.percentile(90));
+            n.put("p99", h.percentile(99));
+            n.put("max", h.getMax());
+        });
+        return MAPPER.writeValueAsString(root);
+    }
+
+    /* Prometheus 文本格式（exposition format 0.0.4）；同名指标归到一组，每组只输出一行 # TYPE */
+    public static String renderPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        byName(Metrics.counters()).forEach((name, series) -> {
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            series.forEach((k, c) -> sb.append(k).append(' ').append(c.get()).append('\n'));
+        });
+        byName(Metrics.histograms()).forEach((name, series) -> {
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            series.forEach((k, h) -> {
+                String labels = Metrics.labelsOf(k);
+                String sep = labels.isEmpty() ? "" : ",";
+                long[] counts = h.bucketCounts();
+                long cum = 0;
+                for (int i = 0; i < Histogram.BOUNDS.length; i++) {
+                    cum += counts[i];
+                    sb.append(name).append("_bucket{").append(labels).append(sep)
+                            .append("le=\"").append(Histogram.BOUNDS[i]).append("\"} ").append(cum).append('\n');
+                }
+                sb.append(name).append("_bucket{").append(labels).append(sep).append("le=\"+Inf\"} ").append(h.getCount()).append('\n');
+                String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+                sb.append(name).append("_sum").append(suffix).append(' ').append(h.getSum()).append('\n');
+                sb.append(name).append("_count").append(suffix).append(' ').append(h.getCount()).append('\n');
+            });
+        });
+        return sb.toString();
+    }
+
+    /*
+     * 按指标名分组：键按字符串排序时 a{..} 会排在 a_b 之后，同一指标的序列可能不相邻
+     * 组内保持原来的键顺序
+     */
+    private static <T> Map<String, Map<String, T>> byName(Map<String, T> metrics) {
+        Map<String, Map<String, T>> out = new TreeMap<>();
+        metrics.forEach((k, v) -> out.computeIfAbsent(Metrics.nameOf(k), n -> new LinkedHashMap<>()).put(k, v));
+        return out;
+    }
+
+    /* 立即把 JSON 和 Prometheus 文本写到目录下（先写临时文件再替换，避免读到半截） */
+    public static void dump(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        writeAtomically(dir.resolve("metrics.json"), renderJson());
+        writeAtomically(dir.resolve("metrics.prom"), renderPrometheus());
+    }
+
+    /* 启动定时落盘，intervalSec <= 0 表示不启动 */
+    public static synchronized void startPeriodicDump(Path dir, long intervalSec) {
+        if (intervalSec <= 0 || scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                dump(dir);
+            } catch (IOException e) {
+                System.err.println("❌ 指标落盘失败: " + e.getMessage());
+            }
+        }, intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stop(Path dir) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        try {
+            dump(dir);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void writeAtomically(Path target, String content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(tmp, content, StandardCharsets.UTF_8);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String fmt(double v, String unit) {
+        if (v >= 100) return String.format("%.0f%s", v, unit);
+        return String.format("%.1f%s", v, unit);
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.mock;
+
+import org.example.DeepSeekClient;
+import org.example.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压测工具：用真实的 DeepSeekClient 按控制台的几条请求链路并发打模拟服务（或任意兼容服务），
+ * 统计吞吐量和延迟分位数
+ *
+ * 用法：java -cp deepseek-console-2.1.jar org.example.mock.LoadGenerator
+ *          [--url http://...]  不填则内嵌启动一个 MockDeepSeekServer
+ *          [--concurrency 32] [--requests 2000] [--mix chat,context,code] [--history 10]
+ *          以及 MockDeepSeekServer 的参数（--latency --tps --tokens --error-rate --429-rate）
+ */
+public class LoadGenerator {
+
+    /** 控制台的请求链路：chat 对应翻译/摘要/论文，context 对应带上下文的自由对话，code 对应代码生成 */
+    enum Path {CHAT, CONTEXT, CODE}
+
+    /** 单条链路的统计 */
+    static final class Stats {
+        final List<Long> latencies = new ArrayList<>();
+        final AtomicInteger ok = new AtomicInteger();
+        final AtomicInteger rateLimited = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        synchronized void record(long micros) {
+            latencies.add(micros);
+        }
+
+        synchronized long[] sorted() {
+            long[] a = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(a);
+            return a;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int concurrency = 32;
+        int total = 2000;
+        int history = 10;
+        List<Path> mix = List.of(Path.CHAT, Path.CONTEXT, Path.CODE);
+        List<String> mockArgs = new ArrayList<>();
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--concurrency" -> concurrency = Integer.parseInt(args[i + 1]);
+                case "--requests" -> total = Integer.parseInt(args[i + 1]);
+                case "--history" -> history = Integer.parseInt(args[i + 1]);
+                case "--mix" -> mix = Arrays.stream(args[i + 1].split(","))
+                        .map(s -> Path.valueOf(s.trim().toUpperCase())).toList();
+                default -> {
+                    mockArgs.add(args[i]);
+                    mockArgs.add(args[i + 1]);
+                }
+            }
+        }
+
+        MockDeepSeekServer mock = null;
+        if (url == null) {
+            MockDeepSeekServer.Options o = MockDeepSeekServer.Options.parse(mockArgs.toArray(new String[0]));
+            o.port = 0;
+            mock = new MockDeepSeekServer(o);
+            mock.start();
+            url = mock.url();
+            System.out.println("内嵌模拟服务: " + url + "（延迟 " + o.latency + "，" + o.tokensPerSecond + " token/s）");
+        }
+
+        DeepSeekClient client = new DeepSeekClient(url);
+        String key = System.getenv().getOrDefault("DEEPSEEK_API_KEY", "sk-loadtest");
+        List<Message> hist = buildHistory(history);
+
+        Map<Path, Stats> stats = new LinkedHashMap<>();
+        for (Path p : mix) stats.put(p, new Stats());
+
+        System.out.println("并发 " + concurrency + "，请求数 " + total + "，链路 " + mix);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        AtomicLong done = new AtomicLong();
+        List<Path> finalMix = mix;
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            Path p = finalMix.get(i % finalMix.size());
+            futures.add(pool.submit(() -> {
+                Stats s = stats.get(p);
+                long t0 = System.nanoTime();
+                try {
+                    switch (p) {
+                        case CHAT -> client.chat(key, "请将以下文本翻译为英文，只给译文：\n压测文本");
+                        case CONTEXT -> client.chatWithContext(key, hist, "继续");
+                        case CODE -> client.code(key, "请用 java 实现快速排序，只返回完整代码");
+                    }
+                    s.record((System.nanoTime() - t0) / 1000);
+                    s.ok.incrementAndGet();
+                } catch (Exception e) {
+                    if (String.valueOf(e.getMessage()).contains("429")) s.rateLimited.incrementAndGet();
+                    else s.failed.incrementAndGet();
+                }
+                long n = done.incrementAndGet();
+                if (n % 200 == 0) System.out.print("\r已完成 " + n);
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        long wallMs = (System.nanoTime() - start) / 1_000_000;
+        pool.shutdown();
+
+        System.out.println("\n\n链路      成功    429   失败     p50(ms)   p90(ms)   p99(ms)  p99.9(ms)  max(ms)");
+        long okTotal = 0;
+        for (Map.Entry<Path, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            long[] a = s.sorted();
+            okTotal += s.ok.get();
+            System.out.printf("%-8s %6d %6d %6d %10.1f %9.1f %9.1f %10.1f %8.1f%n", e.getKey(), s.ok.get(),
+                    s.rateLimited.get(), s.failed.get(), pct(a, 50), pct(a, 90), pct(a, 99), pct(a, 99.9),
+                    a.length == 0 ? 0 : a[a.length - 1] / 1000.0);
+        }
+        System.out.printf("%n总耗时 %d ms，成功吞吐 %.1f 请求/秒%n", wallMs, okTotal * 1000.0 / Math.max(1, wallMs));
+
+        if (mock != null) mock.stop();
+        // OkHttp 的连接池线程不会阻止退出，但这里直接结束更干脆
+        System.exit(0);
+    }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1000.0;
+    }
+
+    private static List<Message> buildHistory(int turns) {
+        List<Message> list = new ArrayList<>();
+        for (int i = 0; i < turns; i++) {
+            list.add(new Message("user", "第 " + i + " 轮问题：请解释一下线程池的工作原理以及常见参数的含义。"));
+            list.add(new Message("assistant", "第 " + i + " 轮回答：线程池由核心线程、任务队列和拒绝策略组成……".repeat(5)));
+        }
+        return list;
+    }
+}
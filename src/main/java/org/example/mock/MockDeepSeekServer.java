@@ -0,0 +1,302 @@
+package org.example.mock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地模拟的 DeepSeek chat-completions 服务，用于离线压测客户端和各条请求链路
+ * 支持阻塞和 SSE 流式两种模式，可配置首字延迟分布、出字速率、错误和 429 注入
+ *
+ * 启动：java -cp deepseek-console-2.1.jar org.example.mock.MockDeepSeekServer --port 18080 --latency lognormal:300,0.5
+ * 然后设置 DEEPSEEK_API_URL=http://localhost:18080/v1/chat/completions
+ */
+public class MockDeepSeekServer {
+
+    public static final String PATH = "/v1/chat/completions";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] WORDS = {
+            "模拟", "回复", "性能", "测试", "延迟", "吞吐", "上下文", "模型", "token", "stream",
+            "latency", "缓存", "并发", "请求", "响应", "数据"};
+
+    private final Options opt;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injected429 = new AtomicLong();
+    /** 模拟服务端上下文缓存：见过的消息前缀（按消息边界）的哈希 */
+    private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+    private ExecutorService pool;
+
+    /** 模拟参数 */
+    public static class Options {
+        public int port = 18080;
+        /** 首字延迟分布：fixed:200 / uniform:100-500 / lognormal:中位数,sigma */
+        public String latency = "lognormal:300,0.5";
+        /** 出字速率（token/秒），0 表示瞬间输出 */
+        public double tokensPerSecond = 50;
+        /** 每次回复的 token 数 */
+        public int completionTokens = 120;
+        public double errorRate = 0.0;
+        public double rateLimitRate = 0.0;
+        public int threads = 256;
+
+        public static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                String v = args[i + 1];
+                switch (args[i]) {
+                    case "--port" -> o.port = Integer.parseInt(v);
+                    case "--latency" -> o.latency = v;
+                    case "--tps" -> o.tokensPerSecond = Double.parseDouble(v);
+                    case "--tokens" -> o.completionTokens = Integer.parseInt(v);
+                    case "--error-rate" -> o.errorRate = Double.parseDouble(v);
+                    case "--429-rate" -> o.rateLimitRate = Double.parseDouble(v);
+                    case "--threads" -> o.threads = Integer.parseInt(v);
+                    default -> throw new IllegalArgumentException("未知参数: " + args[i]);
+                }
+            }
+            return o;
+        }
+    }
+
+    public MockDeepSeekServer(Options opt) {
+        this.opt = opt;
+    }
+
+    public void start() throws IOException {
+        // 响应头和响应体分两次写出，不关 Nagle 会和客户端的延迟 ACK 叠加出约 40ms 的假延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", opt.port), 1024);
+        // 处理线程里会 sleep 模拟延迟，线程数决定了模拟服务能同时“生成”的请求数
+        pool = Executors.newFixedThreadPool(opt.threads);
+        server.setExecutor(pool);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) server.stop(0);
+        if (pool != null) pool.shutdownNow();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            requests.incrementAndGet();
+            if (!"POST".equals(ex.getRequestMethod())) {
+                sendError(ex, 405, "method not allowed");
+                return;
+            }
+            String auth = ex.getRequestHeaders().getFirst("Authorization");
+            if (auth == null || !auth.startsWith("Bearer ")) {
+                sendError(ex, 401, "missing api key");
+                return;
+            }
+            JsonNode req = MAPPER.readTree(ex.getRequestBody());
+
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            if (rnd.nextDouble() < opt.rateLimitRate) {
+                injected429.incrementAndGet();
+                ex.getResponseHeaders().add("Retry-After", "1");
+                sendError(ex, 429, "rate limit reached");
+                return;
+            }
+            if (rnd.nextDouble() < opt.errorRate) {
+                injectedErrors.incrementAndGet();
+                sendError(ex, 500, "injected server error");
+                return;
+            }
+
+            String model = req.path("model").asText("deepseek-chat");
+            int promptTokens = estimateTokens(req.path("messages"));
+            String[] tokens = reply(model, opt.completionTokens);
+            ObjectNode usage = usage(promptTokens, cachedTokens(req.path("messages")), tokens.length);
+
+            sleepMs(sampleLatencyMs());
+            if (req.path("stream").asBoolean(false)) {
+                stream(ex, model, tokens, usage);
+            } else {
+                sleepMs((long) (tokens.length * msPerToken()));
+                blocking(ex, model, tokens, usage);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void blocking(HttpExchange ex, String model, String[] tokens, ObjectNode usage) throws IOException {
+        ObjectNode root = MAPPER.createObjectNode();
+        root.put("id", "mock-" + UUID.randomUUID());
+        root.put("object", "chat.completion");
+        root.put("created", System.currentTimeMillis() / 1000);
+        root.put("model", model);
+        ObjectNode choice = root.putArray("choices").addObject();
+        choice.put("index", 0);
+        choice.putObject("message").put("role", "assistant").put("content", String.join("", tokens));
+        choice.put("finish_reason", "stop");
+        root.set("usage", usage);
+
+        byte[] body = MAPPER.writeValueAsBytes(root);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, body.length);
+        ex.getResponseBody().write(body);
+    }
+
+    /* SSE：先发响应头，首字延迟后按出字速率逐个 token 推送，最后 [DONE] */
+    private void stream(HttpExchange ex, String model, String[] tokens, ObjectNode usage)
+            throws IOException, InterruptedException {
+        ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+        ex.getResponseHeaders().add("Cache-Control", "no-cache");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        String id = "mock-" + UUID.randomUUID();
+        double perToken = msPerToken();
+        for (int i = 0; i < tokens.length; i++) {
+            ObjectNode chunk = chunk(id, model);
+            ObjectNode delta = ((ObjectNode) chunk.withArray("choices").get(0)).putObject("delta");
+            if (i == 0) delta.put("role", "assistant");
+            delta.put("content", tokens[i]);
+            writeEvent(out, MAPPER.writeValueAsString(chunk));
+            if (perToken > 0) Thread.sleep((long) perToken);
+        }
+        ObjectNode last = chunk(id, model);
+        ((ObjectNode) last.withArray("choices").get(0)).putObject("delta");
+        ((ObjectNode) last.withArray("choices").get(0)).put("finish_reason", "stop");
+        last.set("usage", usage);
+        writeEvent(out, MAPPER.writeValueAsString(last));
+        writeEvent(out, "[DONE]");
+    }
+
+    private static ObjectNode chunk(String id, String model) {
+        ObjectNode c = MAPPER.createObjectNode();
+        c.put("id", id);
+        c.put("object", "chat.completion.chunk");
+        c.put("created", System.currentTimeMillis() / 1000);
+        c.put("model", model);
+        ArrayNode choices = c.putArray("choices");
+        choices.addObject().put("index", 0);
+        return c;
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static ObjectNode usage(int prompt, int cached, int completion) {
+        ObjectNode u = MAPPER.createObjectNode();
+        u.put("prompt_tokens", prompt);
+        u.put("completion_tokens", completion);
+        u.put("total_tokens", prompt + completion);
+        u.put("prompt_cache_hit_tokens", Math.min(cached, prompt));
+        u.put("prompt_cache_miss_tokens", prompt - Math.min(cached, prompt));
+        return u;
+    }
+
+    /* 与之前请求相同的最长消息前缀的 token 数，并登记本次请求的各级前缀 */
+    private int cachedTokens(JsonNode messages) {
+        if (prefixes.size() > 100_000) prefixes.clear();
+        StringBuilder prefix = new StringBuilder();
+        long chars = 0;
+        int cached = 0;
+        for (JsonNode m : messages) {
+            String content = m.path("content").asText("");
+            prefix.append(m.path("role").asText()).append('\u0000').append(content).append('\u0001');
+            chars += content.length();
+            String h = Integer.toHexString(prefix.toString().hashCode()) + ":" + prefix.length();
+            if (!prefixes.add(h)) cached = (int) (chars / 4);
+        }
+        return cached;
+    }
+
+    private static void sendError(HttpExchange ex, int code, String msg) throws IOException {
+        byte[] body = ("{\"error\":{\"message\":\"" + msg + "\",\"code\":" + code + "}}").getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(code, body.length);
+        ex.getResponseBody().write(body);
+    }
+
+    /* 粗略估算：约 4 个字符一个 token */
+    private static int estimateTokens(JsonNode messages) {
+        long chars = 0;
+        for (JsonNode m : messages) chars += m.path("content").asText("").length();
+        return (int) Math.max(1, chars / 4);
+    }
+
+    /* 生成回复 token；coder 模型回复里带一个代码块，方便离线走通代码生成链路 */
+    private static String[] reply(String model, int n) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) out[i] = WORDS[rnd.nextInt(WORDS.length)];
+        if (model.contains("coder") && n >= 4) {
+            out[1] = "\n```java\npublic class Main {\n    public static void main(String[] args) {\n        System.out.println(\"mock\");\n";
+            out[n - 2] = "\n    }\n}\n```\n";
+        }
+        return out;
+    }
+
+    private double msPerToken() {
+        return opt.tokensPerSecond <= 0 ? 0 : 1000.0 / opt.tokensPerSecond;
+    }
+
+    private long sampleLatencyMs() {
+        String spec = opt.latency;
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        String args = colon < 0 ? "" : spec.substring(colon + 1);
+        return switch (kind) {
+            case "fixed" -> Long.parseLong(args);
+            case "uniform" -> {
+                String[] r = args.split("-");
+                yield rnd.nextLong(Long.parseLong(r[0]), Long.parseLong(r[1]) + 1);
+            }
+            case "lognormal" -> {
+                String[] r = args.split(",");
+                double median = Double.parseDouble(r[0]);
+                double sigma = Double.parseDouble(r[1]);
+                yield (long) (median * Math.exp(sigma * rnd.nextGaussian()));
+            }
+            default -> 0;
+        };
+    }
+
+    private static void sleepMs(long ms) throws InterruptedException {
+        if (ms > 0) Thread.sleep(ms);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options o = Options.parse(args);
+        MockDeepSeekServer s = new MockDeepSeekServer(o);
+        s.start();
+        System.out.println("✅ 模拟服务已启动: " + s.url());
+        System.out.println("   延迟 " + o.latency + "，出字 " + o.tokensPerSecond + " token/s，每次 " + o.completionTokens
+                + " token，错误率 " + o.errorRate + "，429 率 " + o.rateLimitRate);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("\n共处理 " + s.getRequests()
+                + " 个请求（注入错误 " + s.injectedErrors.get() + "，注入 429 " + s.injected429.get() + "）")));
+    }
+}
@@ -8,7 +8,7 @@ import lombok.NoArgsConstructor;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class ConversationMeta {
     private String id;                  // UUID
     private String title;               // 自动取第一条用户消息前20字
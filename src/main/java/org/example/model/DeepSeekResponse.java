@@ -8,6 +8,7 @@ import java.util.List;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class DeepSeekResponse {
     private List<Choice> choices;
+    private Usage usage;
 
     @Data
     @JsonIgnoreProperties(ignoreUnknown = true)
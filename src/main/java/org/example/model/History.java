@@ -0,0 +1,224 @@
+package org.example.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 紧凑的不可变对话历史：每轮只存一个字节的角色和 UTF-8 编码的正文
+ *
+ * append 返回新的快照，之前的轮次不复制：同一条历史上依次追加的快照共用一个按块分配的追加区，
+ * 各自只记住自己的长度；从旧快照分叉追加时才复制轮次引用（正文字节仍然共享）
+ * 作为 List&lt;Message&gt; 只读使用时按需生成 Message；序列化时直接写出正文字节，不经过 String
+ */
+@JsonSerialize(using = History.Json.class)
+@JsonDeserialize(using = History.Parser.class)
+public final class History extends AbstractList<Message> implements RandomAccess {
+
+    public enum Role {
+        SYSTEM("system"), USER("user"), ASSISTANT("assistant");
+
+        private final String value;
+
+        Role(String value) {
+            this.value = value;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        /* 按 API 中的角色名查找（忽略大小写和首尾空白）；null 或未知角色（如 tool）返回 null，由调用方跳过该轮 */
+        public static Role of(String value) {
+            if (value == null) return null;
+            String v = value.trim();
+            for (Role r : values()) {
+                if (r.value.equalsIgnoreCase(v)) return r;
+            }
+            return null;
+        }
+    }
+
+    /** 追加区每块的轮数；扩容只复制块指针 */
+    private static final int CHUNK = 64;
+    private static final Role[] ROLES = Role.values();
+
+    /** 全局共享的空历史；它的追加区从不写入，从它追加总是另起追加区 */
+    public static final History EMPTY = new History(new Store(), 0);
+
+    private record Turn(byte role, byte[] content) {
+    }
+
+    /** 同一条历史上的快照共享的追加区，count 是已写入的轮数 */
+    private static final class Store {
+        private volatile Turn[][] chunks = new Turn[4][];
+        private int count;
+
+        /* 调用方持有 Store 的锁 */
+        private void add(Turn t) {
+            Turn[][] c = chunks;
+            int chunk = count / CHUNK;
+            if (chunk == c.length) {
+                Turn[][] grown = new Turn[c.length * 2][];
+                System.arraycopy(c, 0, grown, 0, c.length);
+                c = grown;
+            }
+            if (c[chunk] == null) c[chunk] = new Turn[CHUNK];
+            c[chunk][count % CHUNK] = t;
+            count++;
+            // 新块写好后再发布块数组，读方看到的块都是完整的
+            chunks = c;
+        }
+    }
+
+    private final Store store;
+    private final int size;
+
+    private History(Store store, int size) {
+        this.store = store;
+        this.size = size;
+    }
+
+    /* 任意消息列表转成 History；本身是 History 时原样返回，角色无法识别的消息跳过 */
+    public static History of(List<Message> messages) {
+        if (messages instanceof History h) return h;
+        History h = EMPTY;
+        for (Message m : messages) h = h.append(m);
+        return h;
+    }
+
+    public History append(Role role, String content) {
+        return append(new Turn((byte) role.ordinal(), content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private History append(Turn t) {
+        // 空历史（EMPTY）被所有调用方共享，在它的追加区上原地追加会让无关的对话互相占位、且永不释放
+        if (size > 0) {
+            synchronized (store) {
+                if (store.count == size) {
+                    store.add(t);
+                    return new History(store, size + 1);
+                }
+            }
+        }
+        // 空历史，或本快照之后已有别的追加（分叉），另起追加区
+        Store fork = new Store();
+        synchronized (fork) {
+            for (int i = 0; i < size; i++) fork.add(turn(i));
+            fork.add(t);
+        }
+        return new History(fork, size + 1);
+    }
+
+    /* 直接追加 UTF-8 正文，数组不复制，调用方之后不得再修改它；相同正文可借此共用一份字节 */
+    public History appendUtf8(Role role, byte[] content) {
+        return append(new Turn((byte) role.ordinal(), content));
+    }
+
+    /* 角色无法识别的消息不追加，返回本快照 */
+    public History append(Message m) {
+        Role r = Role.of(m.getRole());
+        return r == null ? this : append(r, m.getContent());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Message get(int index) {
+        return new Message(role(index).value(), content(index));
+    }
+
+    public Role role(int index) {
+        return ROLES[turn(index).role()];
+    }
+
+    public String content(int index) {
+        return new String(turn(index).content(), StandardCharsets.UTF_8);
+    }
+
+    /* 正文的 UTF-8 字节，返回内部数组，调用方不得修改 */
+    public byte[] contentUtf8(int index) {
+        return turn(index).content();
+    }
+
+    /* 全部正文的 UTF-8 字节数 */
+    public long contentBytes() {
+        long n = 0;
+        for (int i = 0; i < size; i++) n += turn(i).content().length;
+        return n;
+    }
+
+    private Turn turn(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return store.chunks[index / CHUNK][index % CHUNK];
+    }
+
+    /* 逐条写出 {"role":..,"content":..}，不含外层数组括号；UTF-8 输出时正文字节直接转义写出 */
+    public void writeTo(JsonGenerator gen) throws IOException {
+        for (int i = 0; i < size; i++) {
+            Turn t = turn(i);
+            gen.writeStartObject();
+            gen.writeStringField("role", ROLES[t.role()].value());
+            gen.writeFieldName("content");
+            if (gen instanceof UTF8JsonGenerator) gen.writeUTF8String(t.content(), 0, t.content().length);
+            else gen.writeString(new String(t.content(), StandardCharsets.UTF_8));
+            gen.writeEndObject();
+        }
+    }
+
+    static final class Json extends StdSerializer<History> {
+        Json() {
+            super(History.class);
+        }
+
+        @Override
+        public void serialize(History h, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray();
+            h.writeTo(gen);
+            gen.writeEndArray();
+        }
+    }
+
+    /* 读 [{"role":..,"content":..}, ...]，不经过中间的 Message 列表；角色无法识别的轮次跳过 */
+    static final class Parser extends StdDeserializer<History> {
+        Parser() {
+            super(History.class);
+        }
+
+        @Override
+        public History deserialize(JsonParser p, DeserializationContext ctx) throws IOException {
+            if (p.currentToken() != JsonToken.START_ARRAY) return (History) ctx.handleUnexpectedToken(History.class, p);
+            History h = EMPTY;
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                String role = null;
+                String content = null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    p.nextToken();
+                    if ("role".equals(field)) role = p.getValueAsString();
+                    else if ("content".equals(field)) content = p.getValueAsString();
+                    else p.skipChildren();
+                }
+                Role r = Role.of(role);
+                if (r != null) h = h.append(r, content);
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 接口返回的 usage 块
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Usage {
+    @JsonProperty("prompt_tokens")
+    private int promptTokens;
+    @JsonProperty("completion_tokens")
+    private int completionTokens;
+    @JsonProperty("total_tokens")
+    private int totalTokens;
+    /** 命中服务端上下文缓存的输入 token，未返回时为 0 */
+    @JsonProperty("prompt_cache_hit_tokens")
+    private int promptCacheHitTokens;
+    @JsonProperty("prompt_cache_miss_tokens")
+    private int promptCacheMissTokens;
+}
@@ -1,12 +1,40 @@
 package org.example.model;
 
+import org.example.auth.LoginThrottle;
+import org.example.auth.PasswordHasher;
+import org.example.config.ConfigManager;
 import org.example.config.DatabaseConfig;
+import org.example.util.TtlCache;
 
 import java.sql.*;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UserService {
 
+    // 按用户名缓存查询结果（包括“不存在”），注册时先查是否存在、登录时再查同一个用户名只需一次往返
+    private static final TtlCache<String, Optional<User>> USER_CACHE = new TtlCache<>("user",
+            (int) ConfigManager.getLong(ConfigManager.KEY_CACHE_SIZE, 256),
+            ConfigManager.getLong(ConfigManager.KEY_CACHE_TTL, 30) * 1000);
+
+    private static final LoginThrottle THROTTLE = new LoginThrottle(
+            (int) ConfigManager.getLong(ConfigManager.KEY_LOGIN_MAX_FAILURES, 5),
+            ConfigManager.getLong(ConfigManager.KEY_LOGIN_WINDOW, 300) * 1000);
+
+    // 哈希校验是刻意放慢的 CPU 运算，放到独立的小线程池里做，调用线程（控制台 / HTTP 工作线程）只等结果
+    private static final AtomicInteger AUTH_SEQ = new AtomicInteger();
+    private static final ExecutorService AUTH_POOL = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread t = new Thread(r, "auth-" + AUTH_SEQ.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
     public boolean register(String username, String password) {
         String sql = "INSERT INTO users (username, password) VALUES (?, ?)";
 
@@ -14,7 +42,7 @@ public class UserService {
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setString(1, username);
-            pstmt.setString(2, password);
+            pstmt.setString(2, CompletableFuture.supplyAsync(() -> PasswordHasher.hash(password), AUTH_POOL).join());
 
             int result = pstmt.executeUpdate();
             return result > 0;
@@ -22,52 +50,109 @@ public class UserService {
         } catch (SQLException e) {
             System.err.println("❌ 注册失败: " + e.getMessage());
             return false;
+        } finally {
+            // 之前可能缓存了“不存在”，下次按用户名查询时重新读库拿到自增 id
+            USER_CACHE.invalidate(cacheKey(username));
         }
     }
 
     public Optional<User> login(String username, String password) {
-        String sql = "SELECT id, username, password, created_at FROM users WHERE username = ? AND password = ?";
-
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try {
+            return loginAsync(username, password).join();
+        } catch (CompletionException e) {
+            System.err.println("❌ 登录失败: " + e.getCause().getMessage());
+            return Optional.empty();
+        }
+    }
 
-            pstmt.setString(1, username);
-            pstmt.setString(2, password);
-
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                User user = User.builder()
-                        .id(rs.getInt("id"))
-                        .username(rs.getString("username"))
-                        .password(rs.getString("password"))
-                        .createdAt(rs.getString("created_at"))
-                        .build();
-                System.out.println("✅ 用户登录成功: " + username);
-                return Optional.of(user);
-            } else {
+    /**
+     * 异步登录：限流检查 → 按用户名查用户（走缓存）→ 在认证线程池中校验口令
+     * 口令是明文旧记录或迭代次数低于当前配置时，校验通过后顺带重新哈希写回
+     */
+    public CompletableFuture<Optional<User>> loginAsync(String username, String password) {
+        long wait = THROTTLE.retryAfterSeconds(username);
+        if (wait > 0) {
+            System.out.println("⛔ 登录失败次数过多，请 " + wait + " 秒后再试");
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        Optional<User> user;
+        try {
+            user = findByUsername(username);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // 用户不存在时也做一次同等代价的校验，避免按响应时间猜出用户名是否存在
+        String stored = user.map(User::getPassword).orElseGet(() -> Dummy.HASH);
+        return CompletableFuture.supplyAsync(() -> {
+            if (!PasswordHasher.verify(password, stored) || user.isEmpty()) {
+                THROTTLE.recordFailure(username);
                 System.out.println("❌ 用户名或密码错误: " + username);
+                return Optional.<User>empty();
             }
+            THROTTLE.recordSuccess(username);
+            User u = user.get();
+            if (PasswordHasher.needsRehash(stored)) rehash(u, password);
+            System.out.println("✅ 用户登录成功: " + username);
+            return Optional.of(u);
+        }, AUTH_POOL);
+    }
 
+    /* 升级口令哈希；失败不影响本次登录，下次登录再试 */
+    private void rehash(User u, String password) {
+        String hashed = PasswordHasher.hash(password);
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("UPDATE users SET password = ? WHERE id = ?")) {
+            pstmt.setString(1, hashed);
+            pstmt.setInt(2, u.getId());
+            pstmt.executeUpdate();
+            u.setPassword(hashed);
         } catch (SQLException e) {
-            System.err.println("❌ 登录失败: " + e.getMessage());
+            System.err.println("⚠️ 口令哈希升级失败: " + e.getMessage());
         }
-
-        return Optional.empty();
     }
 
     public boolean userExists(String username) {
-        String sql = "SELECT id FROM users WHERE username = ?";
+        try {
+            return findByUsername(username).isPresent();
+        } catch (SQLException e) {
+            System.err.println("❌ 检查用户失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /* 按用户名查询，先查缓存 */
+    public Optional<User> findByUsername(String username) throws SQLException {
+        Optional<User> cached = USER_CACHE.get(cacheKey(username));
+        if (cached != null) return cached;
 
+        String sql = "SELECT id, username, password, created_at FROM users WHERE username = ?";
+        Optional<User> found = Optional.empty();
         try (Connection conn = DatabaseConfig.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next();
-
-        } catch (SQLException e) {
-            System.err.println("❌ 检查用户失败: " + e.getMessage());
-            return false;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    found = Optional.of(User.builder()
+                            .id(rs.getInt("id"))
+                            .username(rs.getString("username"))
+                            .password(rs.getString("password"))
+                            .createdAt(rs.getString("created_at"))
+                            .build());
+                }
+            }
         }
+        USER_CACHE.put(cacheKey(username), found);
+        return found;
+    }
+
+    // 用户不存在时用来“陪跑”校验的哈希，迭代次数与真实记录一致；首次用到时才计算，不拖慢启动
+    private static final class Dummy {
+        static final String HASH = PasswordHasher.hash("dummy-password");
+    }
+
+    /* 库的默认排序规则不区分大小写，缓存键也统一成小写 */
+    private static String cacheKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,399 @@
+package org.example.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.AnswerCache;
+import org.example.CodeExtractor;
+import org.example.ConversationStore;
+import org.example.DeepSeekClient;
+import org.example.Prompt;
+import org.example.Prompts;
+import org.example.TranslationMemory;
+import org.example.WordExporter;
+import org.example.config.ConfigManager;
+import org.example.metrics.Metrics;
+import org.example.model.ConversationMeta;
+import org.example.model.History;
+import org.example.model.User;
+import org.example.model.UserService;
+import org.example.usage.Feature;
+import org.example.usage.UsageTag;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 服务模式：用 JDK 自带的 HttpServer 把控制台功能暴露成本地 JSON 接口，一个 JVM 服务整个团队
+ * 每个请求凭 Authorization: Bearer <令牌> 找到自己的会话；对上游模型接口的并发由信号量限制
+ *
+ * 启动：java -jar deepseek-console-2.1.jar --server [端口]
+ */
+public class ApiServer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /** 请求体上限，防止误传大文件把内存吃满 */
+    private static final int MAX_BODY = 1 << 20;
+    /** 同一对话对历史的读-改-写串行执行；按对话 id 加锁，没人等待时移除，不随对话数增长 */
+    private static final ConcurrentHashMap<String, ConversationLock> CONVERSATION_LOCKS = new ConcurrentHashMap<>();
+
+    private static final class ConversationLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users;      // 只在 CONVERSATION_LOCKS.compute 内修改
+    }
+
+    private final DeepSeekClient client;
+    private final Options opt;
+    private final UserService users = new UserService();
+    private final SessionManager sessions;
+    private final Semaphore upstream;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private HttpServer server;
+    private ThreadPoolExecutor pool;
+
+    /** 服务参数，默认值可由配置覆盖 */
+    public static class Options {
+        public String host = "127.0.0.1";
+        public int port = 8080;
+        /** 处理请求的线程数：每个请求在等待模型回复时占住一个线程 */
+        public int threads = 256;
+        /** 线程都忙时排队的请求数，再满则由接收线程自己执行（形成背压） */
+        public int queue = 1024;
+        /** 同时发往模型接口的请求数上限 */
+        public int upstreamConcurrency = 32;
+        /** 等待上游名额的最长时间，超时返回 503 */
+        public long upstreamWaitSeconds = 60;
+        public long sessionIdleMinutes = 30;
+
+        public static Options fromConfig() {
+            Options o = new Options();
+            o.host = ConfigManager.getConfig(ConfigManager.KEY_SERVER_HOST, o.host);
+            o.port = (int) ConfigManager.getLong(ConfigManager.KEY_SERVER_PORT, o.port);
+            o.threads = (int) ConfigManager.getLong(ConfigManager.KEY_SERVER_THREADS, o.threads);
+            o.upstreamConcurrency = (int) ConfigManager.getLong(ConfigManager.KEY_SERVER_UPSTREAM, o.upstreamConcurrency);
+            o.sessionIdleMinutes = ConfigManager.getLong(ConfigManager.KEY_SERVER_SESSION_IDLE, o.sessionIdleMinutes);
+            return o;
+        }
+    }
+
+    /** 带 HTTP 状态码的业务错误 */
+    static class HttpError extends RuntimeException {
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Upstream<T> {
+        T call() throws IOException;
+    }
+
+    public ApiServer(DeepSeekClient client, Options opt) {
+        this.client = client;
+        this.opt = opt;
+        this.sessions = new SessionManager(opt.sessionIdleMinutes * 60_000);
+        this.upstream = new Semaphore(Math.max(1, opt.upstreamConcurrency), true);
+    }
+
+    public void start() throws IOException {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(opt.host, opt.port), 1024);
+        AtomicInteger seq = new AtomicInteger();
+        // Java 17 没有虚拟线程，用有界线程池；请求大部分时间在等模型回复，线程数可以远大于 CPU 数
+        pool = new ThreadPoolExecutor(opt.threads, opt.threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(opt.queue), r -> {
+            Thread t = new Thread(r, "api-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        server.setExecutor(pool);
+        server.createContext("/api/", this::handle);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) server.stop(1);
+        if (pool != null) pool.shutdownNow();
+        sessions.close();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        long t0 = System.nanoTime();
+        inFlight.incrementAndGet();
+        String method = ex.getRequestMethod();
+        String[] parts = ex.getRequestURI().getPath().substring("/api/".length()).split("/");
+        String route = parts[0].isEmpty() ? "root" : parts[0];
+        int status = 200;
+        try (ex) {
+            Object result;
+            try {
+                result = route(method, parts, ex);
+            } catch (Exception e) {
+                // 异步登录的异常包在 CompletionException 里
+                Throwable c = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (c instanceof HttpError he) {
+                    status = he.status;
+                } else if (c instanceof SQLException) {
+                    status = 503;
+                } else {
+                    status = 500;
+                }
+                String msg = status == 503 && c instanceof SQLException ? "数据库不可用: " + c.getMessage() : c.getMessage();
+                result = Map.of("error", String.valueOf(msg));
+            }
+            byte[] body = MAPPER.writeValueAsBytes(result);
+            ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            ex.sendResponseHeaders(status, body.length);
+            ex.getResponseBody().write(body);
+        } finally {
+            inFlight.decrementAndGet();
+            Metrics.histogram("server_request_us", "route", route).recordSince(t0);
+            Metrics.counter("server_requests_total", "route", route, "status", String.valueOf(status)).inc();
+        }
+    }
+
+    private Object route(String method, String[] parts, HttpExchange ex) throws Exception {
+        String route = parts[0];
+        if ("health".equals(route) && "GET".equals(method)) {
+            return Map.of("status", "ok", "sessions", sessions.size(), "inFlight", inFlight.get(),
+                    "upstreamAvailable", upstream.availablePermits());
+        }
+        if ("register".equals(route) && "POST".equals(method)) return register(body(ex));
+        if ("login".equals(route) && "POST".equals(method)) return login(body(ex));
+
+        Session s = sessions.get(bearer(ex));
+        if (s == null) throw new HttpError(401, "未登录或会话已过期");
+
+        return switch (method + " " + route) {
+            case "POST logout" -> {
+                sessions.remove(s.getToken());
+                yield Map.of("ok", true);
+            }
+            case "GET conversations" -> parts.length > 1 ? messages(s, parts[1]) : conversations(s);
+            case "DELETE conversations" -> {
+                if (parts.length < 2) throw new HttpError(400, "缺少对话 id");
+                ownedMeta(s, parts[1]);
+                ConversationStore.delete(parts[1], s.getUserId());
+                yield Map.of("ok", true);
+            }
+            case "POST chat" -> chat(s, body(ex));
+            case "POST translate" -> {
+                JsonNode b = body(ex);
+                String text = required(b, "text");
+                TranslationMemory.Result r = TranslationMemory.translate(text, b.path("target").asText("en"),
+                        p -> call(() -> client.chat(key(s), p, tag(s, Feature.TRANSLATE))));
+                yield Map.of("result", r.text(), "segments", r.segments(), "memoryHits", r.hits());
+            }
+            case "POST summary" -> {
+                String text = required(body(ex), "text");
+                yield cached(s, Feature.SUMMARY, "", text, Prompts.summary(text));
+            }
+            case "POST code" -> code(s, body(ex));
+            case "POST thesis" -> thesis(s, body(ex));
+            default -> throw new HttpError(404, "未知接口: " + method + " /api/" + String.join("/", parts));
+        };
+    }
+
+    private Object register(JsonNode b) {
+        String username = required(b, "username");
+        String password = required(b, "password");
+        if (users.userExists(username)) throw new HttpError(409, "用户名已存在");
+        if (!users.register(username, password)) throw new HttpError(500, "注册失败");
+        return Map.of("ok", true);
+    }
+
+    private Object login(JsonNode b) {
+        String username = required(b, "username");
+        Optional<User> user = users.loginAsync(username, required(b, "password")).join();
+        if (user.isEmpty()) throw new HttpError(401, "用户名或密码错误，或尝试过于频繁");
+        String apiKey = b.path("apiKey").asText("");
+        Session s = sessions.create(user.get(), apiKey.isBlank() ? ConfigManager.findApiKey() : apiKey.trim());
+        return Map.of("token", s.getToken(), "userId", s.getUserId(), "username", user.get().getUsername());
+    }
+
+    private Object conversations(Session s) throws SQLException {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (ConversationMeta m : ConversationStore.loadMetaFromDatabase(s.getUserId())) {
+            list.add(Map.of("id", m.getId(), "title", m.getTitle(), "createTime", m.getCreateTime(),
+                    "lastMsgTime", m.getLastMsgTime()));
+        }
+        return Map.of("conversations", list);
+    }
+
+    private Object messages(Session s, String id) throws Exception {
+        ConversationMeta meta = ownedMeta(s, id);
+        return Map.of("id", id, "title", meta.getTitle(), "messages", ConversationStore.loadConversation(meta));
+    }
+
+    /* 带上下文对话：不带 conversationId 时新建对话 */
+    private Object chat(Session s, JsonNode b) throws Exception {
+        String text = required(b, "message");
+        String id = b.path("conversationId").asText("");
+        ConversationMeta meta;
+        if (id.isEmpty()) {
+            long now = System.currentTimeMillis();
+            meta = ConversationMeta.builder().id(UUID.randomUUID().toString()).title(Prompts.title(text))
+                    .createTime(now).lastMsgTime(now).userId(s.getUserId()).build();
+        } else {
+            // 缓存里的元信息是共享对象，改之前先复制
+            meta = ownedMeta(s, id).toBuilder().build();
+        }
+
+        History hist = id.isEmpty() ? History.EMPTY : ConversationStore.loadConversation(meta);
+        UsageTag tag = new UsageTag(Feature.CHAT, s.getUserId(), meta.getId());
+        String reply = call(() -> client.chatWithContext(key(s), hist, text, tag));
+
+        // 模型调用期间不占锁；等待回复时同一对话可能已有别的请求追加了轮次，在最新的历史上追加，不覆盖它们
+        ConversationLock l = lockConversation(meta.getId());
+        try {
+            History latest = id.isEmpty() ? hist : ConversationStore.loadConversation(meta);
+            History msgs = latest.append(History.Role.USER, text).append(History.Role.ASSISTANT, reply);
+            meta.setLastMsgTime(System.currentTimeMillis());
+            ConversationStore.save(meta, msgs);
+            ConversationStore.saveToDatabase(meta, msgs, latest.size());
+        } finally {
+            unlockConversation(meta.getId(), l);
+        }
+        return Map.of("conversationId", meta.getId(), "title", meta.getTitle(), "reply", reply);
+    }
+
+    private static ConversationLock lockConversation(String id) {
+        ConversationLock l = CONVERSATION_LOCKS.compute(id, (k, v) -> {
+            if (v == null) v = new ConversationLock();
+            v.users++;
+            return v;
+        });
+        l.lock.lock();
+        return l;
+    }
+
+    private static void unlockConversation(String id, ConversationLock l) {
+        l.lock.unlock();
+        CONVERSATION_LOCKS.computeIfPresent(id, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    /* 代码生成：只返回拆好的代码块，不在服务端写文件 */
+    private Object code(Session s, JsonNode b) throws IOException {
+        String lang = b.path("lang").asText("java");
+        Prompt prompt = Prompts.code(lang, required(b, "description"));
+        String raw = call(() -> client.code(key(s), prompt, tag(s, Feature.CODE)));
+        CodeExtractor.Result r = CodeExtractor.extract(raw);
+        List<Map<String, Object>> files = new ArrayList<>();
+        for (CodeExtractor.CodeBlock blk : r.blocks()) {
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("file", blk.fileName());
+            f.put("lang", blk.lang());
+            f.put("code", blk.code());
+            files.add(f);
+        }
+        return Map.of("text", r.blocks().isEmpty() ? raw : r.text(), "files", files);
+    }
+
+    /* 一键论文：返回大纲、正文和 Base64 编码的 docx */
+    private Object thesis(Session s, JsonNode b) throws IOException {
+        String topic = required(b, "topic");
+        int words = Math.max(100, Math.min(5000, b.path("words").asInt(800)));
+        UsageTag tag = tag(s, Feature.THESIS);
+        String outline = Prompts.cleanMarkdown(call(() -> client.chat(key(s), Prompts.thesisOutline(topic, words), tag)));
+        String body = Prompts.cleanMarkdown(call(() -> client.chat(key(s), Prompts.thesisBody(outline, words), tag)));
+
+        Path file = Paths.get("output", "server", "user_" + s.getUserId(), UUID.randomUUID() + ".docx");
+        WordExporter.export(topic, outline, body, file.toString());
+        byte[] docx = Files.readAllBytes(file);
+        Files.deleteIfExists(file);
+        return Map.of("outline", outline, "body", body,
+                "fileName", topic.replaceAll("\\s+", "_") + "_" + words + "字.docx",
+                "docxBase64", Base64.getEncoder().encodeToString(docx));
+    }
+
+    /* 近重复缓存命中时不占上游名额，也不计 token */
+    private Object cached(Session s, Feature feature, String scope, String text, Prompt prompt) throws IOException {
+        String hit = AnswerCache.get(feature, scope, text);
+        if (hit != null) return Map.of("result", hit, "cached", true);
+        String result = call(() -> client.chat(key(s), prompt, tag(s, feature)));
+        AnswerCache.put(feature, scope, text, result);
+        return Map.of("result", result, "cached", false);
+    }
+
+    /* 占用一个上游名额调用模型接口 */
+    private <T> T call(Upstream<T> fn) throws IOException {
+        boolean acquired;
+        try {
+            acquired = upstream.tryAcquire(opt.upstreamWaitSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "服务正在关闭");
+        }
+        if (!acquired) {
+            Metrics.counter("server_upstream_rejected_total").inc();
+            throw new HttpError(503, "上游繁忙，请稍后再试");
+        }
+        long t0 = System.nanoTime();
+        try {
+            return fn.call();
+        } catch (IOException e) {
+            throw new HttpError(502, "调用模型失败: " + e.getMessage());
+        } finally {
+            upstream.release();
+            Metrics.histogram("server_upstream_us").recordSince(t0);
+        }
+    }
+
+    private ConversationMeta ownedMeta(Session s, String id) throws SQLException {
+        return ConversationStore.loadMetaFromDatabase(s.getUserId()).stream()
+                .filter(m -> m.getId().equals(id))
+                .findFirst()
+                .orElseThrow(() -> new HttpError(404, "对话不存在"));
+    }
+
+    private static String key(Session s) {
+        if (s.getApiKey() == null || s.getApiKey().isEmpty()) throw new HttpError(400, "未配置API密钥，请在登录时提供 apiKey");
+        return s.getApiKey();
+    }
+
+    private static UsageTag tag(Session s, Feature f) {
+        return UsageTag.of(f, s.getUserId());
+    }
+
+    private static String bearer(HttpExchange ex) {
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        return auth != null && auth.startsWith("Bearer ") ? auth.substring(7).trim() : null;
+    }
+
+    private static JsonNode body(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] data = in.readNBytes(MAX_BODY + 1);
+            if (data.length > MAX_BODY) throw new HttpError(413, "请求体过大");
+            if (data.length == 0) return MAPPER.createObjectNode();
+            try {
+                return MAPPER.readTree(data);
+            } catch (IOException e) {
+                throw new HttpError(400, "请求体不是合法 JSON");
+            }
+        }
+    }
+
+    private static String required(JsonNode b, String field) {
+        String v = b.path(field).asText("");
+        if (v.isBlank()) throw new HttpError(400, "缺少参数: " + field);
+        return v;
+    }
+}
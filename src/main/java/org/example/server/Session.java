@@ -0,0 +1,52 @@
+package org.example.server;
+
+import org.example.model.User;
+
+/**
+ * 一个登录会话：代替控制台里的静态 currentUser / currentApiKey，每个请求按令牌取到自己的会话
+ */
+public class Session {
+
+    private final String token;
+    private final User user;
+    private final String apiKey;
+    private final long createdAt;
+    private volatile long lastAccess;
+
+    public Session(String token, User user, String apiKey) {
+        this.token = token;
+        this.user = user;
+        this.apiKey = apiKey;
+        this.createdAt = System.currentTimeMillis();
+        this.lastAccess = createdAt;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Integer getUserId() {
+        return user.getId();
+    }
+
+    /* 登录时指定的密钥，未指定时为服务端默认密钥，可能为 null */
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.server;
+
+import org.example.model.User;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话表：随机令牌 → 会话，空闲超过 idleMillis 的会话由后台线程定期清理
+ */
+public class SessionManager implements AutoCloseable {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long idleMillis;
+    private final ScheduledExecutorService sweeper;
+
+    public SessionManager(long idleMillis) {
+        this.idleMillis = idleMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(60_000, idleMillis / 4));
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Session create(User user, String apiKey) {
+        byte[] raw = new byte[32];
+        RANDOM.nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        Session s = new Session(token, user, apiKey);
+        sessions.put(token, s);
+        return s;
+    }
+
+    /* 取会话并刷新最后访问时间；不存在或已过期返回 null */
+    public Session get(String token) {
+        if (token == null) return null;
+        Session s = sessions.get(token);
+        if (s == null) return null;
+        if (System.currentTimeMillis() - s.getLastAccess() > idleMillis) {
+            sessions.remove(token);
+            return null;
+        }
+        s.touch();
+        return s;
+    }
+
+    public void remove(String token) {
+        if (token != null) sessions.remove(token);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(s -> now - s.getLastAccess() > idleMillis);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        sessions.clear();
+    }
+}
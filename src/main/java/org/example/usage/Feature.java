@@ -0,0 +1,37 @@
+package org.example.usage;
+
+/**
+ * 计费归属的功能模块，code 字段写入 token_usage.feature
+ */
+public enum Feature {
+    CHAT("chat", "自由对话"),
+    TRANSLATE("translate", "中英互译"),
+    CODE("code", "代码生成"),
+    SUMMARY("summary", "文本摘要"),
+    THESIS("thesis", "一键论文"),
+    FILE_PIPE("filepipe", "文件管道"),
+    OTHER("other", "其他");
+
+    private final String code;
+    private final String label;
+
+    Feature(String code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static Feature fromCode(String code) {
+        for (Feature f : values()) {
+            if (f.code.equals(code)) return f;
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,183 @@
+package org.example.usage;
+
+import org.example.config.DatabaseConfig;
+import org.example.metrics.Metrics;
+import org.example.model.Usage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * token 用量累加器：每次调用只在内存里累加，按 用户 + 对话 + 功能 + 模型 聚合，
+ * 定时（以及退出时）批量 MERGE 到 token_usage 表，调用路径上不碰数据库
+ */
+public class UsageLedger {
+
+    /** 聚合维度；没有用户 / 对话的调用记为 0 / 空串 */
+    public record Key(int userId, String conversationId, String feature, String model) {
+    }
+
+    /** 某个维度上尚未落库的增量 */
+    public static final class Totals {
+        private long calls;
+        private long promptTokens;
+        private long completionTokens;
+        private long lastTime;
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getPromptTokens() {
+            return promptTokens;
+        }
+
+        public long getCompletionTokens() {
+            return completionTokens;
+        }
+
+        void add(long calls, long prompt, long completion, long time) {
+            this.calls += calls;
+            this.promptTokens += prompt;
+            this.completionTokens += completion;
+            this.lastTime = Math.max(this.lastTime, time);
+        }
+    }
+
+    private static final String MERGE_SQL = """
+            MERGE token_usage WITH (HOLDLOCK) AS target
+            USING (SELECT ? AS user_id, ? AS conversation_id, ? AS feature, ? AS model) AS source
+            ON target.user_id = source.user_id AND target.conversation_id = source.conversation_id
+               AND target.feature = source.feature AND target.model = source.model
+            WHEN MATCHED THEN
+                UPDATE SET calls = target.calls + ?, prompt_tokens = target.prompt_tokens + ?,
+                           completion_tokens = target.completion_tokens + ?, last_time = ?
+            WHEN NOT MATCHED THEN
+                INSERT (user_id, conversation_id, feature, model, calls, prompt_tokens, completion_tokens, last_time)
+                VALUES (source.user_id, source.conversation_id, source.feature, source.model, ?, ?, ?, ?);
+            """;
+
+    // 累加和取走都在 compute/remove 的桶锁内完成，刷盘时不会丢掉并发写入的增量
+    private static final Map<Key, Totals> PENDING = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    private UsageLedger() {
+    }
+
+    /* 记录一次调用的用量，usage 为空（接口未返回）时只计调用次数 */
+    public static void record(UsageTag tag, String model, Usage usage) {
+        UsageTag t = tag == null ? UsageTag.NONE : tag;
+        Key key = new Key(t.userId() == null ? 0 : t.userId(),
+                t.conversationId() == null ? "" : t.conversationId(),
+                t.feature().getCode(), model);
+        long prompt = usage == null ? 0 : usage.getPromptTokens();
+        long completion = usage == null ? 0 : usage.getCompletionTokens();
+        long now = System.currentTimeMillis();
+        PENDING.compute(key, (k, v) -> {
+            Totals tot = v == null ? new Totals() : v;
+            tot.add(1, prompt, completion, now);
+            return tot;
+        });
+        Metrics.counter("usage_tokens_total", "feature", key.feature(), "kind", "prompt").add(prompt);
+        Metrics.counter("usage_tokens_total", "feature", key.feature(), "kind", "completion").add(completion);
+    }
+
+    /* 启动定时刷盘；intervalSec <= 0 表示只在退出时刷 */
+    public static synchronized void start(long intervalSec) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "usage-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervalSec > 0) {
+            scheduler.scheduleWithFixedDelay(UsageLedger::flushQuietly, intervalSec, intervalSec, TimeUnit.SECONDS);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(UsageLedger::flushQuietly, "usage-final-flush"));
+    }
+
+    /**
+     * 把内存中的增量一次性批量写入数据库，返回写入的行数
+     * 写入失败时增量放回内存，下次再试
+     */
+    public static synchronized int flush() throws SQLException {
+        List<Map.Entry<Key, Totals>> batch = new ArrayList<>();
+        for (Key k : new ArrayList<>(PENDING.keySet())) {
+            Totals t = PENDING.remove(k);
+            if (t != null) batch.add(Map.entry(k, t));
+        }
+        if (batch.isEmpty()) return 0;
+
+        long t0 = System.nanoTime();
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement ps = conn.prepareStatement(MERGE_SQL)) {
+            conn.setAutoCommit(false);
+            for (Map.Entry<Key, Totals> e : batch) {
+                Key k = e.getKey();
+                Totals t = e.getValue();
+                ps.setInt(1, k.userId());
+                ps.setString(2, k.conversationId());
+                ps.setString(3, k.feature());
+                ps.setString(4, k.model());
+                ps.setLong(5, t.calls);
+                ps.setLong(6, t.promptTokens);
+                ps.setLong(7, t.completionTokens);
+                ps.setLong(8, t.lastTime);
+                ps.setLong(9, t.calls);
+                ps.setLong(10, t.promptTokens);
+                ps.setLong(11, t.completionTokens);
+                ps.setLong(12, t.lastTime);
+                ps.addBatch();
+            }
+            try {
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            batch.forEach(en -> PENDING.compute(en.getKey(), (k, v) -> {
+                Totals tot = v == null ? new Totals() : v;
+                Totals old = en.getValue();
+                tot.add(old.calls, old.promptTokens, old.completionTokens, old.lastTime);
+                return tot;
+            }));
+            Metrics.counter("usage_flush_total", "result", "failed").inc();
+            throw e;
+        }
+        Metrics.histogram("usage_flush_us").recordSince(t0);
+        Metrics.counter("usage_flush_total", "result", "ok").inc();
+        return batch.size();
+    }
+
+    /* 尚未落库的增量快照（数据库不可用时报表用它兜底） */
+    public static synchronized Map<Key, Totals> pending() {
+        Map<Key, Totals> copy = new HashMap<>();
+        PENDING.forEach((k, v) -> PENDING.computeIfPresent(k, (kk, vv) -> {
+            Totals t = new Totals();
+            t.add(vv.calls, vv.promptTokens, vv.completionTokens, vv.lastTime);
+            copy.put(kk, t);
+            return vv;
+        }));
+        return copy;
+    }
+
+    private static void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("❌ token 用量写库失败（保留在内存中下次重试）: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.usage;
+
+import org.example.config.ConfigManager;
+import org.example.config.DatabaseConfig;
+import org.example.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * token 用量报表：按功能、按对话汇总，并按配置的单价估算费用
+ * 单价为每百万 token 的价格（元），输入 / 输出分开配置
+ */
+public class UsageReport {
+
+    /** 报表的一行：name 为功能名或对话标题 */
+    public record Row(String name, long calls, long promptTokens, long completionTokens, double cost) {
+        public long totalTokens() {
+            return promptTokens + completionTokens;
+        }
+    }
+
+    private final double inputPrice;
+    private final double outputPrice;
+
+    public UsageReport() {
+        this(price(ConfigManager.KEY_PRICE_INPUT, 2.0), price(ConfigManager.KEY_PRICE_OUTPUT, 8.0));
+    }
+
+    public UsageReport(double inputPrice, double outputPrice) {
+        this.inputPrice = inputPrice;
+        this.outputPrice = outputPrice;
+    }
+
+    public double getInputPrice() {
+        return inputPrice;
+    }
+
+    public double getOutputPrice() {
+        return outputPrice;
+    }
+
+    /* 按功能汇总，userId 为空表示全部用户 */
+    public List<Row> byFeature(Integer userId) throws SQLException {
+        String sql = "SELECT feature, SUM(calls), SUM(prompt_tokens), SUM(completion_tokens) FROM token_usage"
+                + (userId == null ? "" : " WHERE user_id = ?")
+                + " GROUP BY feature ORDER BY SUM(prompt_tokens) + SUM(completion_tokens) DESC";
+        List<Row> rows = new ArrayList<>();
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (userId != null) ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(row(Feature.fromCode(rs.getString(1)).getLabel(), rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /* 用量最大的若干个对话 */
+    public List<Row> topConversations(Integer userId, int limit) throws SQLException {
+        String sql = """
+                SELECT TOP (?) u.conversation_id, MAX(c.title), SUM(u.calls), SUM(u.prompt_tokens), SUM(u.completion_tokens)
+                FROM token_usage u LEFT JOIN conversations c ON c.id = u.conversation_id
+                WHERE u.user_id = ? AND u.conversation_id <> ''
+                GROUP BY u.conversation_id
+                ORDER BY SUM(u.prompt_tokens) + SUM(u.completion_tokens) DESC
+                """;
+        List<Row> rows = new ArrayList<>();
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            ps.setInt(2, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String title = rs.getString(2);
+                    rows.add(row(title != null ? title : rs.getString(1), rs.getLong(3), rs.getLong(4), rs.getLong(5)));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /* 数据库不可用时，用内存中尚未落库的增量按功能汇总 */
+    public List<Row> pendingByFeature(Integer userId) {
+        Map<String, long[]> sums = new LinkedHashMap<>();
+        UsageLedger.pending().forEach((k, t) -> {
+            if (userId != null && k.userId() != userId) return;
+            long[] s = sums.computeIfAbsent(k.feature(), f -> new long[3]);
+            s[0] += t.getCalls();
+            s[1] += t.getPromptTokens();
+            s[2] += t.getCompletionTokens();
+        });
+        List<Row> rows = new ArrayList<>();
+        sums.forEach((f, s) -> rows.add(row(Feature.fromCode(f).getLabel(), s[0], s[1], s[2])));
+        return rows;
+    }
+
+    /* 渲染成控制台表格，最后一行为合计 */
+    public String render(List<Row> rows) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %8s %12s %12s %12s %10s%n", "名称", "调用", "输入token", "输出token", "合计token", "费用(元)"));
+        long calls = 0, prompt = 0, completion = 0;
+        double cost = 0;
+        for (Row r : rows) {
+            sb.append(String.format("%-24s %8d %12d %12d %12d %10.4f%n", shorten(r.name()), r.calls(),
+                    r.promptTokens(), r.completionTokens(), r.totalTokens(), r.cost()));
+            calls += r.calls();
+            prompt += r.promptTokens();
+            completion += r.completionTokens();
+            cost += r.cost();
+        }
+        sb.append(String.format("%-24s %8d %12d %12d %12d %10.4f%n", "合计", calls, prompt, completion,
+                prompt + completion, cost));
+        return sb.toString();
+    }
+
+    /* 按功能的服务端上下文缓存命中率，取自本进程的 deepseek_prompt_cache_tokens_total 计数 */
+    public String renderCacheHits() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %12s %12s %8s%n", "功能", "命中token", "未命中token", "命中率"));
+        long hitSum = 0, missSum = 0;
+        for (Feature f : Feature.values()) {
+            long hit = Metrics.count("deepseek_prompt_cache_tokens_total", "feature", f.getCode(), "result", "hit");
+            long miss = Metrics.count("deepseek_prompt_cache_tokens_total", "feature", f.getCode(), "result", "miss");
+            if (hit + miss == 0) continue;
+            sb.append(String.format("%-24s %12d %12d %7.1f%%%n", f.getLabel(), hit, miss, 100.0 * hit / (hit + miss)));
+            hitSum += hit;
+            missSum += miss;
+        }
+        if (hitSum + missSum == 0) return "（本次运行暂无调用，或接口未返回缓存用量）";
+        sb.append(String.format("%-24s %12d %12d %7.1f%%%n", "合计", hitSum, missSum, 100.0 * hitSum / (hitSum + missSum)));
+        return sb.toString();
+    }
+
+    private Row row(String name, long calls, long prompt, long completion) {
+        double cost = (prompt * inputPrice + completion * outputPrice) / 1_000_000.0;
+        return new Row(name, calls, prompt, completion, cost);
+    }
+
+    private static String shorten(String s) {
+        return s.length() > 20 ? s.substring(0, 19) + "…" : s;
+    }
+
+    private static double price(String key, double def) {
+        try {
+            return Double.parseDouble(ConfigManager.getConfig(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.usage;
+
+/**
+ * 一次模型调用的归属：功能 + 用户 + 对话，userId / conversationId 可为空
+ */
+public record UsageTag(Feature feature, Integer userId, String conversationId) {
+
+    /** 未标注来源的调用（压测、旧代码路径） */
+    public static final UsageTag NONE = new UsageTag(Feature.OTHER, null, null);
+
+    public UsageTag {
+        if (feature == null) feature = Feature.OTHER;
+    }
+
+    public static UsageTag of(Feature feature, Integer userId) {
+        return new UsageTag(feature, userId, null);
+    }
+}
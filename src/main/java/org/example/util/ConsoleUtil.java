@@ -1,5 +1,6 @@
 package org.example.util;
 
+import java.io.IOException;
 import java.util.Scanner;
 
 public class ConsoleUtil {
@@ -13,4 +14,14 @@ public class ConsoleUtil {
     public static void printLine(String line) {
         System.out.println(line);
     }
-}
\ No newline at end of file
+
+    /* 用户是否已敲下回车（不阻塞）；输入被重定向（脚本喂入的后续行不算按键）或取不到时一律按没有处理 */
+    public static boolean hasPendingLine() {
+        if (System.console() == null) return false;
+        try {
+            return System.in.available() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.util;
+
+import java.text.Normalizer;
+
+/**
+ * 文本指纹：规范化 + 64 位 SimHash
+ * 规范化后只差空白、标点、全角半角、大小写的文本完全相同；内容略有出入的文本指纹的汉明距离很小
+ */
+public final class SimHash {
+
+    /** 切片长度（按码点） */
+    private static final int SHINGLE = 3;
+
+    private SimHash() {
+    }
+
+    /* NFKC（全角转半角、兼容字符归一）→ 小写 → 去掉空白和标点 */
+    public static String normalize(String text) {
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase();
+        StringBuilder sb = new StringBuilder(s.length());
+        s.codePoints().forEach(cp -> {
+            if (!Character.isWhitespace(cp) && !isPunctuation(cp)) sb.appendCodePoint(cp);
+        });
+        return sb.toString();
+    }
+
+    /* 对规范化后的文本按 3 字切片计算 SimHash；不足一片时整体作为一片 */
+    public static long fingerprint(String normalized) {
+        int[] cps = normalized.codePoints().toArray();
+        int[] weights = new int[64];
+        int n = Math.max(1, cps.length - SHINGLE + 1);
+        for (int i = 0; i < n; i++) {
+            long h = hash(cps, i, Math.min(cps.length, i + SHINGLE));
+            for (int b = 0; b < 64; b++) {
+                weights[b] += ((h >>> b) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long fp = 0;
+        for (int b = 0; b < 64; b++) {
+            if (weights[b] > 0) fp |= 1L << b;
+        }
+        return fp;
+    }
+
+    public static int hamming(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /* FNV-1a 后再做一次 murmur3 的 fmix64，让相邻切片的位分布足够分散 */
+    private static long hash(int[] cps, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= cps[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static boolean isPunctuation(int cp) {
+        return switch (Character.getType(cp)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                    Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION,
+                    Character.FINAL_QUOTE_PUNCTUATION, Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.util;
+
+import org.example.metrics.Counter;
+import org.example.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * 进程内小缓存：LRU 容量上限 + 写入后 TTL 过期，命中率记到 cache_requests_total{cache,result}
+ * 适合元信息这类读多写少、可接受短暂不一致（其它节点的修改最多滞后一个 TTL）的数据
+ */
+public class TtlCache<K, V> {
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    private final long ttlMillis;
+    private final Map<K, Entry<V>> map;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public TtlCache(String name, int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                boolean evict = size() > maxSize;
+                if (evict) evictions.inc();
+                return evict;
+            }
+        };
+        this.hits = Metrics.counter("cache_requests_total", "cache", name, "result", "hit");
+        this.misses = Metrics.counter("cache_requests_total", "cache", name, "result", "miss");
+        this.evictions = Metrics.counter("cache_evictions_total", "cache", name);
+    }
+
+    /* 命中且未过期返回值，否则返回 null */
+    public synchronized V get(K key) {
+        Entry<V> e = map.get(key);
+        if (e != null && e.expiresAt() > System.currentTimeMillis()) {
+            hits.inc();
+            return e.value();
+        }
+        if (e != null) map.remove(key);
+        misses.inc();
+        return null;
+    }
+
+    public synchronized void put(K key, V value) {
+        map.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /* 写穿透：已缓存且未过期时用 fn 就地更新（保留原过期时间），未缓存则什么都不做 */
+    public synchronized void update(K key, UnaryOperator<V> fn) {
+        Entry<V> e = map.get(key);
+        if (e == null) return;
+        if (e.expiresAt() <= System.currentTimeMillis()) {
+            map.remove(key);
+            return;
+        }
+        map.put(key, new Entry<>(fn.apply(e.value()), e.expiresAt()));
+    }
+
+    public synchronized void invalidate(K key) {
+        map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /* 命中率（0~1），尚无请求时为 0 */
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+}
@@ -0,0 +1,35 @@
+-- 基线：原先由 DatabaseConfig 直接建的三张表，已存在的库跳过
+IF OBJECT_ID(N'users', N'U') IS NULL
+CREATE TABLE users (
+    id INT IDENTITY(1,1) PRIMARY KEY,
+    username NVARCHAR(50) NOT NULL UNIQUE,
+    password NVARCHAR(100) NOT NULL,
+    created_at DATETIME DEFAULT GETDATE()
+);
+GO
+
+IF OBJECT_ID(N'conversations', N'U') IS NULL
+CREATE TABLE conversations (
+    id NVARCHAR(50) PRIMARY KEY,
+    user_id INT NOT NULL,
+    title NVARCHAR(200) NOT NULL,
+    create_time BIGINT NOT NULL,
+    last_msg_time BIGINT NOT NULL,
+    FOREIGN KEY (user_id) REFERENCES users(id)
+);
+GO
+
+-- token 用量汇总：按 用户 + 对话 + 功能 + 模型 聚合，user_id = 0 表示无登录用户（守护模式）
+IF OBJECT_ID(N'token_usage', N'U') IS NULL
+CREATE TABLE token_usage (
+    user_id INT NOT NULL,
+    conversation_id NVARCHAR(50) NOT NULL DEFAULT '',
+    feature NVARCHAR(20) NOT NULL,
+    model NVARCHAR(50) NOT NULL,
+    calls BIGINT NOT NULL DEFAULT 0,
+    prompt_tokens BIGINT NOT NULL DEFAULT 0,
+    completion_tokens BIGINT NOT NULL DEFAULT 0,
+    last_time BIGINT NOT NULL,
+    PRIMARY KEY (user_id, conversation_id, feature, model)
+);
+GO
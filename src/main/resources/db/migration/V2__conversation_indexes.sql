@@ -0,0 +1,9 @@
+-- 历史列表按用户取、按最后消息时间倒序：覆盖索引，避免扫全表再排序
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_conversations_user_time' AND object_id = OBJECT_ID(N'conversations'))
+CREATE INDEX IX_conversations_user_time ON conversations (user_id, last_msg_time DESC) INCLUDE (title, create_time);
+GO
+
+-- 用量报表按功能汇总
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'IX_token_usage_feature' AND object_id = OBJECT_ID(N'token_usage'))
+CREATE INDEX IX_token_usage_feature ON token_usage (feature) INCLUDE (calls, prompt_tokens, completion_tokens);
+GO
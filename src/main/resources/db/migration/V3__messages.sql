@@ -0,0 +1,12 @@
+-- 对话消息：按 (conversation_id, seq) 聚簇，续聊时按序顺读；删除对话级联删除消息
+IF OBJECT_ID(N'messages', N'U') IS NULL
+CREATE TABLE messages (
+    conversation_id NVARCHAR(50) NOT NULL,
+    seq INT NOT NULL,
+    role NVARCHAR(20) NOT NULL,
+    content NVARCHAR(MAX) NOT NULL,
+    created_at BIGINT NOT NULL,
+    CONSTRAINT PK_messages PRIMARY KEY (conversation_id, seq),
+    CONSTRAINT FK_messages_conversation FOREIGN KEY (conversation_id) REFERENCES conversations(id) ON DELETE CASCADE
+);
+GO
@@ -0,0 +1,4 @@
+-- 口令改存 PBKDF2 哈希（pbkdf2$迭代次数$盐$哈希），原来的 100 字符不够用
+IF COL_LENGTH(N'users', N'password') < 512
+ALTER TABLE users ALTER COLUMN password NVARCHAR(256) NOT NULL;
+GO